@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An abstract syntax tree for a Jack class, built by the parser and read by
+ * the code generator.
+ *
+ * Nodes live in an arena of parallel int arrays and are referred to by their
+ * index. Every node has a kind, two int fields whose meaning depends on the
+ * kind, and a list of children linked through first child and next sibling
+ * indices. Names and literal text are stored once in a string table and
+ * referred to by index as well.
+ *
+ * Names are resolved while parsing, so a variable node already holds the
+ * segment and offset that it will be read from or written to.
+ *
+ * @author Adam Turner
+ */
+public class Ast {
+
+  /** Marks a missing child or sibling */
+  public static final int NONE = -1;
+
+  // Node kinds. The value and extra fields are unused unless stated.
+  /** A class; value is the class name. Children are its subroutines. */
+  public static final int CLASS = 0;
+  /** A constructor, function or method; value is its name. Children are the
+   * statements of its body. */
+  public static final int SUBROUTINE = 1;
+  /** The VM function declaration, placed before the first statement that is
+   * not a variable declaration; value is the name and extra is the number of
+   * local variables declared before it */
+  public static final int FUNCTION = 2;
+  /** A list of statements */
+  public static final int BLOCK = 3;
+  /** Assignment to a variable. Children are the target variable and the
+   * value. */
+  public static final int LET = 4;
+  /** Assignment to an array element. Children are the array variable, the
+   * index expressions and finally the value. */
+  public static final int LET_ARRAY = 5;
+  /** Children are the condition, a block and optionally an else block */
+  public static final int IF = 6;
+  /** Children are the condition and a block */
+  public static final int WHILE = 7;
+  /** The only child is a call */
+  public static final int DO = 8;
+  /** Has the returned expression as its child, if there is one */
+  public static final int RETURN = 9;
+  /** An integer constant; value is the lexeme */
+  public static final int NUMBER = 10;
+  /** A string or character constant; value is the lexeme including its
+   * quotation marks */
+  public static final int STRING = 11;
+  public static final int TRUE = 12;
+  public static final int FALSE = 13;
+  public static final int NULL = 14;
+  public static final int THIS = 15;
+  /** A variable; value is its segment and extra its offset */
+  public static final int VARIABLE = 16;
+  /** An array access. Children are the array variable and the index. */
+  public static final int ARRAY_ELEMENT = 17;
+  /** A subroutine call; value is the full name. Children are the
+   * arguments. */
+  public static final int CALL = 18;
+  /** value is the operator, as a TokenKind. Children are the operands. */
+  public static final int BINARY = 19;
+  /** value is the operator, as a TokenKind. The child is the operand. */
+  public static final int UNARY = 20;
+  /** A constant expression folded while parsing; value is its 16-bit
+   * value, which may be negative */
+  public static final int CONSTANT = 21;
+
+  // Segments of variable nodes
+  /** A name that did not resolve to anything that can be read or written,
+   * which generates no code */
+  public static final int UNRESOLVED = -1;
+  public static final int LOCAL = 0;
+  public static final int ARGUMENT = 1;
+  public static final int STATIC = 2;
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private int[] kinds;
+  private int[] values;
+  private int[] extras;
+  private int[] firstChildren;
+  private int[] lastChildren;
+  private int[] nextSiblings;
+  private int size;
+
+  private List<String> strings;
+  private Map<String, Integer> stringIds;
+
+  /**
+   * Creates a new, empty Ast
+   */
+  public Ast(){
+    kinds = new int[INITIAL_CAPACITY];
+    values = new int[INITIAL_CAPACITY];
+    extras = new int[INITIAL_CAPACITY];
+    firstChildren = new int[INITIAL_CAPACITY];
+    lastChildren = new int[INITIAL_CAPACITY];
+    nextSiblings = new int[INITIAL_CAPACITY];
+    size = 0;
+    strings = new ArrayList<>();
+    stringIds = new HashMap<>();
+  }
+
+  /**
+   * Adds a node with no children to the arena
+   * @param kind the kind of the node
+   * @param value the first field of the node
+   * @param extra the second field of the node
+   * @return the id of the new node
+   */
+  public int add(int kind, int value, int extra){
+    if (size == kinds.length){
+      int capacity = size * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      values = Arrays.copyOf(values, capacity);
+      extras = Arrays.copyOf(extras, capacity);
+      firstChildren = Arrays.copyOf(firstChildren, capacity);
+      lastChildren = Arrays.copyOf(lastChildren, capacity);
+      nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+    }
+
+    kinds[size] = kind;
+    values[size] = value;
+    extras[size] = extra;
+    firstChildren[size] = NONE;
+    lastChildren[size] = NONE;
+    nextSiblings[size] = NONE;
+    return size++;
+  }
+
+  /**
+   * Adds a node with no children and no fields to the arena
+   * @param kind the kind of the node
+   * @return the id of the new node
+   */
+  public int add(int kind){
+    return add(kind, 0, 0);
+  }
+
+  /**
+   * Makes a node the last child of another. A node can only have one
+   * parent.
+   * @param parent the id of the parent node
+   * @param child the id of the new child
+   */
+  public void append(int parent, int child){
+    if (firstChildren[parent] == NONE){
+      firstChildren[parent] = child;
+    }
+    else {
+      nextSiblings[lastChildren[parent]] = child;
+    }
+    lastChildren[parent] = child;
+  }
+
+  /**
+   * Returns the id of a string in the string table, adding it if it is not
+   * there already
+   * @param s the string
+   * @return the id of the string
+   */
+  public int addString(String s){
+    Integer id = stringIds.get(s);
+    if (id == null){
+      id = strings.size();
+      strings.add(s);
+      stringIds.put(s, id);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the string with the given id
+   * @param id the id of the string
+   * @return the string
+   */
+  public String getString(int id){
+    return strings.get(id);
+  }
+
+  /**
+   * Returns the number of nodes in the arena
+   * @return size
+   */
+  public int size(){
+    return size;
+  }
+
+  /**
+   * Returns the kind of a node
+   * @param node the id of the node
+   * @return the kind of the node
+   */
+  public int getKind(int node){
+    return kinds[node];
+  }
+
+  /**
+   * Returns the first field of a node
+   * @param node the id of the node
+   * @return the value of the node
+   */
+  public int getValue(int node){
+    return values[node];
+  }
+
+  /**
+   * Returns the second field of a node
+   * @param node the id of the node
+   * @return the extra field of the node
+   */
+  public int getExtra(int node){
+    return extras[node];
+  }
+
+  /**
+   * Returns the first child of a node
+   * @param node the id of the node
+   * @return the id of the first child, or NONE
+   */
+  public int getFirstChild(int node){
+    return firstChildren[node];
+  }
+
+  /**
+   * Returns the next child of the parent of a node
+   * @param node the id of the node
+   * @return the id of the next sibling, or NONE
+   */
+  public int getNextSibling(int node){
+    return nextSiblings[node];
+  }
+
+  /**
+   * Counts the children of a node
+   * @param node the id of the node
+   * @return the number of children
+   */
+  public int getChildCount(int node){
+    int count = 0;
+    for (int child = firstChildren[node] ; child != NONE ;
+         child = nextSiblings[child]){
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,721 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Simple timing harness for the hot paths of the compiler (For testing
+ * purposes). Each benchmark warms up before it is measured and reports the
+ * mean time per operation.
+ *
+ * Usage: java Benchmark &lt;benchmark&gt;
+ *   load   - compares Scanner based and FileChannel based source loading
+ *   tokens - compares the heap used by Token objects and a TokenBuffer
+ *   relex  - compares re-lexing a one line edit with lexing the whole file
+ *   parallel - compares sequential and chunked parallel lexing of a large file
+ *   skip   - compares scalar and SWAR skipping of whitespace and comments,
+ *            timing each in a JVM of its own
+ *   expr   - times parsing and compiling expressions with 10,000 operands
+ *   headers - compares reading only the declarations of a class with
+ *            parsing it in full
+ *   library - compares reading the library declarations for every parser
+ *            with sharing a table read once
+ *   scopes - counts the symbol tables allocated and the peak and retained
+ *            heap of a parser as the number of subroutines in a class grows
+ *            (run with -Djack.source=release to see the heap with the source
+ *            dropped)
+ *   write  - compares writing VM code through a PrintWriter with writing it
+ *            through a VmWriter
+ *   peephole - counts the rewrites the peephole optimizer makes and the
+ *            instructions it removes from sample and given classes
+ *   strength - counts the multiplications and divisions by constants that
+ *            are reduced in sample and given classes, and gives the cost
+ *            model's static estimate of the cycles saved
+ *
+ * @author Adam Turner
+ */
+public class Benchmark {
+
+  private static final String SAMPLE =
+          "  /** Sums up 1 + 2 + 3 + ... + m */\n" +
+          "  function int sum(int n) {\n" +
+          "    var int sum, i;\n" +
+          "    let i = 1; // Start counting from one\n" +
+          "    while (~(i > n)) {\n" +
+          "      let sum = sum + i;\n" +
+          "      let i = i + 1;\n" +
+          "    }\n" +
+          "    return sum;\n" +
+          "  }\n";
+
+  private static final String WASTEFUL =
+          "  function int flags(int x, boolean b) {\n" +
+          "    var boolean done;\n" +
+          "    let done = ~(~b);\n" +
+          "    while (true) {\n" +
+          "      let x = x + 0;\n" +
+          "      let done = done & true;\n" +
+          "      let done = done | false;\n" +
+          "      let done = ~true;\n" +
+          "    }\n" +
+          "    return -0;\n" +
+          "  }\n";
+
+  private static final String ARITHMETIC =
+          "  function int address(int x, int y) {\n" +
+          "    var int column, row;\n" +
+          "    let column = (x & 511) / 16;\n" +
+          "    let row = y * 32;\n" +
+          "    return row + column;\n" +
+          "  }\n" +
+          "  function int area(int width, int height) {\n" +
+          "    var int area, border;\n" +
+          "    let area = width * height;\n" +
+          "    let border = (width * 2) + (height * 2);\n" +
+          "    let area = (area * 10) - (border / 3) + ((area & 255) / 4);\n" +
+          "    return area;\n" +
+          "  }\n";
+
+  /** Results of benchmarked operations are stored here so the JIT cannot
+   * remove the work that produced them */
+  private static volatile long blackhole;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1){
+      System.err.println("Error. Benchmark name required.");
+      System.exit(1);
+    }
+
+    if (args[0].equals("load")){
+      benchmarkLoading();
+    }
+    else if (args[0].equals("tokens")){
+      benchmarkTokenMemory();
+    }
+    else if (args[0].equals("relex")){
+      benchmarkRelexing();
+    }
+    else if (args[0].equals("parallel")){
+      benchmarkParallelLexing();
+    }
+    else if (args[0].equals("skip")){
+      benchmarkSkipping(args.length > 1 ? args[1] : null);
+    }
+    else if (args[0].equals("expr")){
+      benchmarkExpressions();
+    }
+    else if (args[0].equals("headers")){
+      benchmarkHeaders();
+    }
+    else if (args[0].equals("library")){
+      benchmarkLibrary();
+    }
+    else if (args[0].equals("scopes")){
+      benchmarkScopes();
+    }
+    else if (args[0].equals("write")){
+      benchmarkWriting();
+    }
+    else if (args[0].equals("peephole")){
+      benchmarkPeephole(Arrays.copyOfRange(args, 1, args.length));
+    }
+    else if (args[0].equals("strength")){
+      benchmarkStrength(Arrays.copyOfRange(args, 1, args.length));
+    }
+    else {
+      System.err.println("Error. Unknown benchmark " + args[0] + ".");
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Times reading a file line by line with a Scanner against reading it
+   * through SourceLoader, for 1 KB, 100 KB and 10 MB inputs.
+   * @throws IOException thrown if a temporary source file cannot be written
+   */
+  private static void benchmarkLoading() throws IOException {
+    int[] sizes = {1 << 10, 100 << 10, 10 << 20};
+
+    for (int size : sizes){
+      File file = writeSource(size);
+      int iterations = Math.max(5, (50 << 20) / size);
+
+      double scanner = time(iterations, () -> {
+        Scanner input = new Scanner(file);
+        List<String> lines = new ArrayList<>();
+        while (input.hasNextLine()){
+          lines.add(input.nextLine());
+        }
+        input.close();
+        return lines.size();
+      });
+
+      double channel = time(iterations, () -> {
+        CharBuffer input = SourceLoader.load(file.getPath());
+        return input.limit();
+      });
+
+      System.out.printf("%9d bytes: Scanner %10.3f ms, SourceLoader %10.3f ms" +
+              " (%.1fx)%n", file.length(), scanner, channel, scanner / channel);
+      file.delete();
+    }
+  }
+
+  /**
+   * Measures the heap needed to hold a stream of roughly a million tokens,
+   * first as a list of Token objects that each own their lexeme (as the
+   * lexer used to store them) and then as a TokenBuffer. The source text
+   * itself is excluded from both figures.
+   * @throws IOException thrown if the temporary source file cannot be written
+   */
+  private static void benchmarkTokenMemory() throws IOException {
+    File file = writeSource(6 << 20);
+    Lexer lexer = new Lexer();
+    lexer.parseData(file.getPath());
+    file.delete();
+
+    long before = usedHeap();
+    TokenBuffer tokens = lexer.tokenize();
+    long bufferBytes = usedHeap() - before;
+
+    char[] source = tokens.getSource();
+    before = usedHeap();
+    List<Token> objects = new ArrayList<>();
+    for (int i = 0 ; i < tokens.size() ; ++i){
+      objects.add(new Token(new String(source, tokens.getOffset(i),
+              tokens.getLength(i)), tokens.getType(i), tokens.getLineNum(i)));
+    }
+    long objectBytes = usedHeap() - before;
+
+    double perMillion = 1e6 / objects.size() / (1 << 20);
+    System.out.printf("%d tokens%n", tokens.size());
+    System.out.printf("List<Token>: %6.1f bytes/token, %6.1f MB per 1M tokens%n",
+            (double) objectBytes / objects.size(), objectBytes * perMillion);
+    System.out.printf("TokenBuffer: %6.1f bytes/token, %6.1f MB per 1M tokens%n",
+            (double) bufferBytes / tokens.size(), bufferBytes * perMillion);
+  }
+
+  /**
+   * Times re-lexing a one line edit in the middle of a class of roughly
+   * 10,000 lines against tokenizing the edited file from scratch.
+   * @throws IOException thrown if the temporary source file cannot be written
+   */
+  private static void benchmarkRelexing() throws IOException {
+    File file = writeSource(SAMPLE.length() * 1000);
+    Lexer lexer = new Lexer();
+    lexer.parseData(file.getPath());
+    file.delete();
+
+    TokenBuffer tokens = lexer.tokenize();
+    String text = new String(tokens.getSource(), 0, tokens.getSourceLength());
+    int offset = text.indexOf("let i = 1;", text.length() / 2) + 8;
+    int iterations = 2000;
+
+    double incremental = time(iterations, () ->
+            IncrementalLexer.relex(tokens, offset, 1, "2").size());
+
+    double full = time(iterations, () -> {
+      char[] edited = text.toCharArray();
+      edited[offset] = '2';
+      return new Lexer(edited, edited.length, 0, 1, 0).tokenize().size();
+    });
+
+    System.out.printf("%d lines, %d tokens: relex %.3f ms, full %.3f ms%n",
+            lexer.getLineMap().getLineCount(), tokens.size(), incremental, full);
+  }
+
+  /**
+   * Times tokenizing a 32 MB class with a single Lexer against tokenizing it
+   * with a ParallelLexer on every available core.
+   * @throws IOException thrown if the temporary source file cannot be written
+   */
+  private static void benchmarkParallelLexing() throws IOException {
+    File file = writeSource(32 << 20);
+    CharBuffer input = SourceLoader.load(file.getPath());
+    file.delete();
+
+    char[] source = input.array();
+    int length = input.limit();
+    int iterations = 10;
+
+    double sequential = time(iterations, () ->
+            new Lexer(source, length, 0, 1, 0).tokenize().size());
+    double parallel = time(iterations, () ->
+            ParallelLexer.tokenize(source, length, new LineMap()).size());
+
+    System.out.printf("%d characters, %d cores: sequential %.3f ms, parallel" +
+            " %.3f ms (%.1fx)%n", length,
+            Runtime.getRuntime().availableProcessors(), sequential, parallel,
+            sequential / parallel);
+  }
+
+  /**
+   * Times tokenizing with the lexer examining every character against
+   * tokenizing with a SwarScanner, first for ordinary code and then for a
+   * file made up mostly of indentation and long comment blocks. The time to
+   * set up the scanner is included.
+   *
+   * Both versions share the lexer's scan loop, and whichever is timed first
+   * shapes how the JIT compiles it for the other, so each is timed in a JVM
+   * of its own, started with the same class path.
+   * @param variant "scalar" or "swar" to time that version in this JVM, or
+   * null to time both in child JVMs and compare them
+   * @throws IOException thrown if a child JVM cannot be started or fails
+   */
+  private static void benchmarkSkipping(String variant) throws IOException {
+    String[] names = {"code", "comments"};
+    if (variant == null){
+      double[][] times = new double[2][];
+      String[] variants = {"scalar", "swar"};
+      for (int v = 0 ; v < variants.length ; ++v){
+        times[v] = timeInChildJvm(variants[v], names.length);
+      }
+      for (int i = 0 ; i < names.length ; ++i){
+        System.out.printf("%-8s scalar %.3f ms, SWAR %.3f ms (%.2fx)%n",
+                names[i], times[0][i], times[1][i], times[0][i] / times[1][i]);
+      }
+      return;
+    }
+
+    StringBuilder commented = new StringBuilder();
+    commented.append("        /**\n");
+    for (int i = 0 ; i < 12 ; ++i){
+      commented.append("         * Lookup table entries are stored in row order, ")
+              .append("with each row padded out to a whole word.\n");
+    }
+    commented.append("         */\n");
+    commented.append("        let table[i] = \"sprite row\"; // next row\n");
+
+    String[] samples = {SAMPLE, commented.toString()};
+    boolean swar = variant.equals("swar");
+    for (int i = 0 ; i < samples.length ; ++i){
+      StringBuilder text = new StringBuilder();
+      while (text.length() < (512 << 10)){
+        text.append(samples[i]);
+      }
+      char[] source = text.toString().toCharArray();
+      int length = source.length;
+
+      double time = time(200, () -> {
+        Lexer lexer = new Lexer(source, length, 0, 1, 0);
+        if (swar){
+          lexer.setScanner(new SwarScanner(source, 0, length));
+        }
+        return lexer.tokenize().size();
+      });
+      System.out.println(names[i] + " " + time);
+    }
+  }
+
+  /**
+   * Runs the skipping benchmark for one version of the lexer in a new JVM
+   * @param variant "scalar" or "swar"
+   * @param inputs the number of inputs the child times
+   * @return the mean time for each input, in milliseconds
+   * @throws IOException thrown if the child cannot be started or fails
+   */
+  private static double[] timeInChildJvm(String variant, int inputs)
+          throws IOException {
+    String java = System.getProperty("java.home") + File.separator + "bin" +
+            File.separator + "java";
+    Process child = new ProcessBuilder(java, "-cp",
+            System.getProperty("java.class.path"), "Benchmark", "skip", variant)
+            .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+    double[] times = new double[inputs];
+    int read = 0;
+    try (Scanner output = new Scanner(child.getInputStream())){
+      while (output.hasNextLine()){
+        String[] fields = output.nextLine().split(" ");
+        if (fields.length == 2 && read < inputs){
+          times[read++] = Double.parseDouble(fields[1]);
+        }
+      }
+    }
+
+    try {
+      if (child.waitFor() != 0 || read != inputs){
+        throw new IOException("The " + variant + " benchmark failed.");
+      }
+    }
+    catch (InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for the " + variant +
+              " benchmark.");
+    }
+    return times;
+  }
+
+  /**
+   * Times compiling a class whose only statement assigns an expression of
+   * 10,000 operands, once with a single operator throughout and once cycling
+   * through every binary operator, with the odd unary operator and
+   * parenthesised operand mixed in. The time includes lexing the class and
+   * writing out its VM code.
+   * @throws IOException thrown if a temporary source file cannot be written
+   */
+  private static void benchmarkExpressions() throws IOException {
+    String[][] operators = {{"+"}, {"+", "*", "-", "/", "<", "&", ">", "|", "="}};
+    String[] names = {"flat", "mixed"};
+    int operands = 10000;
+
+    for (int v = 0 ; v < operators.length ; ++v){
+      StringBuilder expression = new StringBuilder();
+      for (int i = 0 ; i < operands ; ++i){
+        if (i > 0){
+          expression.append(' ').append(operators[v][i % operators[v].length])
+                  .append(' ');
+        }
+        switch (i % 5){
+          case 0:
+            expression.append('a');
+            break;
+          case 1:
+            expression.append(i);
+            break;
+          case 2:
+            expression.append(operators[v].length > 1 ? "-b" : "b");
+            break;
+          case 3:
+            expression.append(operators[v].length > 1 ? "(a + 1)" : "a");
+            break;
+          default:
+            expression.append('b');
+            break;
+        }
+      }
+
+      File file = File.createTempFile("benchmark", ".jack");
+      PrintWriter out = new PrintWriter(file);
+      out.println("class Benchmark {");
+      out.println("  function int run(int a, int b) {");
+      out.println("    var int x;");
+      out.println("    let x = " + expression + ";");
+      out.println("    return x;");
+      out.println("  }");
+      out.println("}");
+      out.close();
+
+      double compile = time(50, () -> new Parser(file.getPath()).getAst().size());
+
+      System.out.printf("%-5s %d operands: %.3f ms%n", names[v], operands,
+              compile);
+      file.delete();
+      String path = file.getPath();
+      new File(path.substring(0, path.lastIndexOf('.')) + ".vm").delete();
+    }
+  }
+
+  /**
+   * Times reading the class variables and subroutine signatures of a 1 MB
+   * class, skipping every subroutine body, against also parsing the bodies.
+   * Neither writes any VM code.
+   * @throws IOException thrown if the temporary source file cannot be written
+   */
+  private static void benchmarkHeaders() throws IOException {
+    //Each subroutine needs a name of its own to get past the header pass
+    File file = File.createTempFile("benchmark", ".jack");
+    PrintWriter out = new PrintWriter(file);
+    out.println("class Benchmark {");
+    for (int i = 0 ; i * SAMPLE.length() < (1 << 20) ; ++i){
+      out.print(SAMPLE.replace("sum(", "sum" + i + "("));
+    }
+    out.println("}");
+    out.close();
+    int iterations = 20;
+
+    double headers = time(iterations, () ->
+            Parser.readHeaders(file.getPath()).getSymbolTables().size());
+    double full = time(iterations, () -> {
+      Parser parser = Parser.readHeaders(file.getPath());
+      parser.parseBodies();
+      return parser.getAst().size();
+    });
+
+    System.out.printf("%d bytes: headers only %.3f ms, full parse %.3f ms" +
+            " (%.0f%% saved)%n", file.length(), headers, full,
+            100 * (1 - headers / full));
+    file.delete();
+  }
+
+  /**
+   * Times setting up the global symbol table of a parser by reading the
+   * library declarations again, as every parser used to, against layering
+   * it over the shared library table. Also times reading the declarations
+   * of a small class, which is dominated by this setup.
+   * @throws IOException thrown if the library declarations cannot be read
+   * or the temporary source file cannot be written
+   */
+  private static void benchmarkLibrary() throws IOException {
+    int iterations = 2000;
+
+    double reread = time(iterations, () ->
+            SymbolTable.readLibrary().overlay("global").size());
+    double shared = time(iterations, () ->
+            SymbolTable.library().overlay("global").size());
+
+    File file = File.createTempFile("benchmark", ".jack");
+    PrintWriter out = new PrintWriter(file);
+    out.println("class Benchmark {");
+    out.print(SAMPLE);
+    out.println("}");
+    out.close();
+    double headers = time(iterations, () ->
+            Parser.readHeaders(file.getPath()).getSymbolTables().size());
+
+    System.out.printf("global table: re-read %.4f ms, shared %.4f ms%n",
+            reread, shared);
+    System.out.printf("%d byte class headers: %.4f ms%n", file.length(),
+            headers);
+    file.delete();
+  }
+
+  /**
+   * Compiles classes of 100, 1,000 and 10,000 subroutines, and for each
+   * reports the number of symbol tables the parser allocated, the number it
+   * still holds, the most heap in use while it compiled, and the heap it
+   * retains once every body has been compiled. Both heap figures are over
+   * what was in use before the parser was created, and the peak includes
+   * garbage not yet collected, so it is clearest with a small young
+   * generation, such as -Xmn8m.
+   * @throws IOException thrown if a temporary source file cannot be written
+   */
+  private static void benchmarkScopes() throws IOException {
+    System.out.println("source: " + System.getProperty("jack.source", "keep"));
+
+    for (int subroutines = 100 ; subroutines <= 10000 ; subroutines *= 10){
+      File file = File.createTempFile("benchmark", ".jack");
+      PrintWriter out = new PrintWriter(file);
+      out.println("class Benchmark {");
+      for (int i = 0 ; i < subroutines ; ++i){
+        out.print(SAMPLE.replace("sum(", "sum" + i + "("));
+      }
+      out.println("}");
+      out.close();
+
+      long before = usedHeap();
+      resetPeakHeap();
+      Parser parser = Parser.readHeaders(file.getPath());
+      parser.parseBodies();
+      long peak = peakHeap() - before;
+      long retained = usedHeap() - before;
+
+      System.out.printf("%5d subroutines: %5d tables allocated, %d held, " +
+              "%d KB peak, %d KB retained%n", subroutines,
+              parser.getScopesCreated(), parser.getSymbolTables().size(),
+              peak / 1024, retained / 1024);
+      blackhole = parser.getAst().size();
+      file.delete();
+    }
+  }
+
+  /**
+   * Times writing 100,000 lines of VM code to a file, one line at a time,
+   * through a PrintWriter around a FileWriter (as the parser used to, after
+   * collecting every line) against through a VmWriter.
+   * @throws IOException thrown if the temporary file cannot be written
+   */
+  private static void benchmarkWriting() throws IOException {
+    List<String> code = new ArrayList<>();
+    for (int i = 0 ; code.size() < 100000 ; ++i){
+      code.add("push local " + (i % 8));
+      code.add("push constant " + i);
+      code.add("call Math.multiply 2");
+      code.add("pop local " + (i % 8));
+    }
+    File file = File.createTempFile("benchmark", ".vm");
+    int iterations = 20;
+
+    double printWriter = time(iterations, () -> {
+      PrintWriter out = new PrintWriter(new FileWriter(file));
+      for (String line : code){
+        out.println(line);
+      }
+      out.close();
+      return (int) file.length();
+    });
+    double vmWriter = time(iterations, () -> {
+      VmWriter out = new VmWriter(file.getPath());
+      out.write(code);
+      out.close();
+      return (int) file.length();
+    });
+
+    System.out.printf("%d lines: PrintWriter %.3f ms, VmWriter %.3f ms%n",
+            code.size(), printWriter, vmWriter);
+    file.delete();
+  }
+
+  /**
+   * Compiles a class of the sample subroutines and some wasteful
+   * expressions, followed by any Jack files given, and reports how many
+   * times each peephole rule fired and the instructions before and after.
+   * @param files paths of further Jack files to compile
+   * @throws IOException thrown if a temporary source file cannot be written
+   */
+  private static void benchmarkPeephole(String[] files) throws IOException {
+    if (!Peephole.ENABLED){
+      System.err.println("Error. The peephole optimizer is off.");
+      return;
+    }
+
+    File file = File.createTempFile("benchmark", ".jack");
+    PrintWriter out = new PrintWriter(file);
+    out.println("class Benchmark {");
+    out.print(SAMPLE);
+    out.print(WASTEFUL);
+    out.println("}");
+    out.close();
+
+    List<String> paths = new ArrayList<>();
+    paths.add(file.getPath());
+    paths.addAll(Arrays.asList(files));
+    for (String path : paths){
+      Parser parser = Parser.readHeaders(path);
+      parser.parseBodies();
+      blackhole = parser.getAst().size();
+    }
+    file.delete();
+
+    Peephole peephole = Peephole.standard();
+    System.out.println("window: " + peephole.getWindow());
+    peephole.printReport(System.out);
+  }
+
+  /**
+   * Compiles a class of sample arithmetic, followed by any Jack files given,
+   * and reports the multiplications and divisions by constants that were
+   * reduced and the Hack instructions the cost model estimates are saved.
+   * The estimate is static: each reduced operation is counted once, however
+   * often it would run, and nothing is executed or measured.
+   * @param files paths of further Jack files to compile
+   * @throws IOException thrown if a temporary source file cannot be written
+   */
+  private static void benchmarkStrength(String[] files) throws IOException {
+    if (!StrengthReducer.ENABLED){
+      System.err.println("Error. Strength reduction is off.");
+      return;
+    }
+
+    File file = File.createTempFile("benchmark", ".jack");
+    PrintWriter out = new PrintWriter(file);
+    out.println("class Benchmark {");
+    out.print(ARITHMETIC);
+    out.println("}");
+    out.close();
+
+    List<String> paths = new ArrayList<>();
+    paths.add(file.getPath());
+    paths.addAll(Arrays.asList(files));
+    for (String path : paths){
+      Parser parser = Parser.readHeaders(path);
+      parser.parseBodies();
+      blackhole = parser.getAst().size();
+    }
+    file.delete();
+
+    StrengthReducer.printReport(System.out);
+  }
+
+  /**
+   * Returns the number of bytes currently in use on the heap, after asking
+   * the garbage collector to clear away anything unreachable.
+   * @return the used heap in bytes
+   */
+  private static long usedHeap(){
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0 ; i < 3 ; ++i){
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Starts measuring the peak usage of every heap memory pool again from
+   * what each holds now
+   */
+  private static void resetPeakHeap(){
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+      if (pool.getType() == MemoryType.HEAP){
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * Returns the sum of the peak usage of every heap memory pool since they
+   * were last reset. The pools need not peak at the same moment, so this
+   * can overstate the true peak, but never understates it.
+   * @return the peak heap in bytes
+   */
+  private static long peakHeap(){
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+      if (pool.getType() == MemoryType.HEAP){
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  /**
+   * Writes a temporary Jack source file of roughly the given size by
+   * repeating a sample subroutine inside a single class.
+   * @param size the minimum number of bytes the file should contain
+   * @return the temporary file
+   * @throws IOException thrown if the file cannot be written
+   */
+  private static File writeSource(int size) throws IOException {
+    File file = File.createTempFile("benchmark", ".jack");
+    PrintWriter out = new PrintWriter(file);
+
+    out.println("class Benchmark {");
+    for (int written = 0 ; written < size ; written += SAMPLE.length()){
+      out.print(SAMPLE);
+    }
+    out.println("}");
+    out.close();
+
+    return file;
+  }
+
+  /**
+   * A single benchmarked operation, returning some value derived from the
+   * work it has done.
+   */
+  private interface Operation {
+    int run() throws IOException;
+  }
+
+  /**
+   * Runs the operation for a warm up period and then returns the mean time
+   * taken over the given number of iterations.
+   * @param iterations the number of measured runs
+   * @param operation the operation to be timed
+   * @return the mean time per run in milliseconds
+   * @throws IOException thrown if the operation fails
+   */
+  private static double time(int iterations, Operation operation) throws IOException {
+    long sink = 0;
+    for (int i = 0 ; i < iterations ; ++i){
+      sink += operation.run();
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0 ; i < iterations ; ++i){
+      sink += operation.run();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    blackhole = sink;
+    return elapsed / 1e6 / iterations;
+  }
+}
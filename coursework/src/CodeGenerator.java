@@ -0,0 +1,359 @@
+import java.util.Arrays;
+
+/**
+ * Generates VM code by walking the abstract syntax tree of a class.
+ *
+ * @author Adam Turner
+ */
+public class CodeGenerator {
+
+  /** The VM segment of each Ast segment */
+  private static final VmSegment[] SEGMENTS = {VmSegment.LOCAL,
+          VmSegment.ARGUMENT, VmSegment.STATIC};
+
+  /** Commands that are queued on the work stack to follow a nested block,
+   * and the labels they refer to */
+  private static final VmOpcode[] COMMANDS = {VmOpcode.LABEL, VmOpcode.GOTO,
+          VmOpcode.LABEL};
+  private static final String[] LABELS = {"jump", "loop", "end"};
+  private static final int LABEL_JUMP = 0;
+  private static final int GOTO_LOOP = 1;
+  private static final int LABEL_END = 2;
+
+  private Ast ast;
+  private VmCode code;
+  private int[] work;
+  private int workSize;
+  private int[] chain;
+  private int chainSize;
+
+  /**
+   * Creates a new CodeGenerator for the given tree
+   * @param ast the tree to generate code from
+   */
+  public CodeGenerator(Ast ast){
+    this.ast = ast;
+    chain = new int[16];
+    work = new int[64];
+  }
+
+  /**
+   * Generates the VM code for a node and everything below it
+   * @param root the id of the node, usually a class
+   * @return the VM code
+   */
+  public VmCode generate(int root){
+    code = new VmCode();
+    statement(root);
+    return code;
+  }
+
+  /**
+   * Generates a statement and everything nested inside it. Nested blocks
+   * are not generated by recursion, but pushed onto a work stack along with
+   * the commands that follow them, so nesting is limited only by memory.
+   * @param root the id of the statement, block, subroutine or class
+   */
+  private void statement(int root){
+    int bottom = workSize;
+    schedule(root);
+
+    while (workSize > bottom){
+      int node = work[--workSize];
+      if (node < 0){
+        code.label(COMMANDS[~node], LABELS[~node]);
+        continue;
+      }
+
+      int child = ast.getFirstChild(node);
+      switch (ast.getKind(node)){
+        case Ast.CLASS:
+        case Ast.SUBROUTINE:
+        case Ast.BLOCK:
+          //Children are pushed in order and then reversed, so that the first
+          // is popped first
+          int first = workSize;
+          for ( ; child != Ast.NONE ; child = ast.getNextSibling(child)){
+            schedule(child);
+          }
+          for (int i = first, j = workSize - 1 ; i < j ; ++i, --j){
+            int swap = work[i];
+            work[i] = work[j];
+            work[j] = swap;
+          }
+          break;
+        case Ast.FUNCTION:
+          code.function(ast.getString(ast.getValue(node)), ast.getExtra(node));
+          break;
+        case Ast.LET:
+          expression(ast.getNextSibling(child));
+          pop(child);
+          break;
+        case Ast.LET_ARRAY:
+          push(child);
+          child = ast.getNextSibling(child);
+          while (ast.getNextSibling(child) != Ast.NONE){
+            expression(child);
+            child = ast.getNextSibling(child);
+          }
+          code.command(VmOpcode.ADD);
+          code.pop(VmSegment.POINTER, 1);
+          expression(child);
+          code.pop(VmSegment.THAT, 0);
+          break;
+        case Ast.IF:
+          expression(child);
+          code.label(VmOpcode.IF_GOTO, "jump");
+          int then = ast.getNextSibling(child);
+          int otherwise = ast.getNextSibling(then);
+          if (otherwise != Ast.NONE){
+            schedule(otherwise);
+          }
+          schedule(~LABEL_JUMP);
+          schedule(then);
+          break;
+        case Ast.WHILE:
+          code.label(VmOpcode.LABEL, "loop");
+          expression(child);
+          code.label(VmOpcode.IF_GOTO, "end");
+          schedule(~LABEL_END);
+          schedule(~GOTO_LOOP);
+          schedule(ast.getNextSibling(child));
+          break;
+        case Ast.DO:
+          expression(child);
+          break;
+        case Ast.RETURN:
+          if (child != Ast.NONE){
+            expression(child);
+          }
+          else {
+            code.push(VmSegment.CONSTANT, 0);
+          }
+          code.command(VmOpcode.RETURN);
+          break;
+        default:
+          throw new IllegalStateException("Node " + node + " is not a " +
+                  "statement.");
+      }
+    }
+  }
+
+  /**
+   * Adds a node, or the complement of an index into COMMANDS, to the work
+   * stack
+   * @param item the node or command
+   */
+  private void schedule(int item){
+    if (workSize == work.length){
+      work = Arrays.copyOf(work, workSize * 2);
+    }
+    work[workSize++] = item;
+  }
+
+  private void expression(int node){
+    int child = ast.getFirstChild(node);
+
+    switch (ast.getKind(node)){
+      case Ast.NUMBER:
+        code.pushConstant(ast.getString(ast.getValue(node)));
+        break;
+      case Ast.CONSTANT:
+        constant(ast.getValue(node));
+        break;
+      case Ast.STRING:
+        String lexeme = ast.getString(ast.getValue(node));
+        //The lexeme includes the start and end quotation marks, which are not
+        // part of the string
+        code.push(VmSegment.CONSTANT, lexeme.length() - 2);
+        code.call("String.new", 1);
+        for (int i = 1 ; i < lexeme.length() - 1 ; ++i){
+          code.push(VmSegment.CONSTANT, lexeme.charAt(i));
+          code.call("String.appendChar", 1);
+        }
+        break;
+      case Ast.TRUE:
+        code.push(VmSegment.CONSTANT, 1);
+        code.command(VmOpcode.NEG);
+        break;
+      case Ast.FALSE:
+      case Ast.NULL:
+        code.push(VmSegment.CONSTANT, 0);
+        break;
+      case Ast.THIS:
+        code.push(VmSegment.POINTER, 0);
+        break;
+      case Ast.VARIABLE:
+        push(node);
+        break;
+      case Ast.ARRAY_ELEMENT:
+        push(child);
+        expression(ast.getNextSibling(child));
+        code.command(VmOpcode.ADD);
+        break;
+      case Ast.CALL:
+        int args = 0;
+        for ( ; child != Ast.NONE ; child = ast.getNextSibling(child)){
+          expression(child);
+          args++;
+        }
+        code.call(ast.getString(ast.getValue(node)), args);
+        break;
+      case Ast.BINARY:
+        binaryChain(node);
+        break;
+      case Ast.UNARY:
+        expression(child);
+        code.command(ast.getValue(node) == TokenKind.MINUS ? VmOpcode.NEG :
+                VmOpcode.NOT);
+        break;
+      default:
+        throw new IllegalStateException("Node " + node + " is not an " +
+                "expression.");
+    }
+  }
+
+  /**
+   * Generates a binary operation. Operators of equal precedence associate to
+   * the left, so a long expression is a chain of binary nodes each holding
+   * the next as its left operand. The chain is followed with a loop rather
+   * than by recursion, so that its length is not limited by the stack.
+   * @param node the id of the outermost binary node
+   */
+  private void binaryChain(int node){
+    int bottom = chainSize;
+    for (int n = node ; ast.getKind(n) == Ast.BINARY ; n = ast.getFirstChild(n)){
+      if (chainSize == chain.length){
+        chain = Arrays.copyOf(chain, chainSize * 2);
+      }
+      chain[chainSize++] = n;
+    }
+    int top = chainSize;
+
+    //Operands nested inside the chain push their own chains above this one,
+    // and remove them again before returning
+    int innermost = chain[top - 1];
+    int first = ast.getFirstChild(innermost);
+    int second = ast.getNextSibling(first);
+    if (StrengthReducer.ENABLED && ast.getValue(innermost) == TokenKind.STAR &&
+            isConstant(first) && !isConstant(second)){
+      //A constant has no effects, so it can be multiplied by from the right
+      expression(second);
+      if (!StrengthReducer.multiply(code, ConstantFolder.value(ast, first))){
+        expression(first);
+        operator(TokenKind.STAR);
+      }
+    }
+    else {
+      expression(first);
+      binaryOperand(innermost);
+    }
+    for (int i = top - 2 ; i >= bottom ; --i){
+      binaryOperand(chain[i]);
+    }
+
+    chainSize = bottom;
+  }
+
+  /**
+   * Generates the right operand of a binary node and then its operator, whose
+   * left operand is already on the stack. A multiplication or division by a
+   * constant is handed to the StrengthReducer first.
+   * @param node the id of the binary node
+   */
+  private void binaryOperand(int node){
+    int operator = ast.getValue(node);
+    int left = ast.getFirstChild(node);
+    int right = ast.getNextSibling(left);
+    if (StrengthReducer.ENABLED && isConstant(right)){
+      int value = ConstantFolder.value(ast, right);
+      if (operator == TokenKind.STAR && StrengthReducer.multiply(code, value)){
+        return;
+      }
+      if (operator == TokenKind.SLASH && StrengthReducer.divide(code, value,
+              StrengthReducer.bound(ast, left))){
+        return;
+      }
+    }
+
+    expression(right);
+    operator(operator);
+  }
+
+  private boolean isConstant(int node){
+    return ConstantFolder.value(ast, node) != ConstantFolder.NOT_CONSTANT;
+  }
+
+  /**
+   * Generates the VM command for a binary operator
+   * @param kind the operator token kind
+   */
+  private void operator(int kind){
+    switch (kind){
+      case TokenKind.AND:
+        code.command(VmOpcode.AND);
+        break;
+      case TokenKind.OR:
+        code.command(VmOpcode.OR);
+        break;
+      case TokenKind.ASSIGN:
+        code.command(VmOpcode.EQ);
+        break;
+      case TokenKind.LESS:
+        code.command(VmOpcode.LT);
+        break;
+      case TokenKind.GREATER:
+        code.command(VmOpcode.GT);
+        break;
+      case TokenKind.PLUS:
+        code.command(VmOpcode.ADD);
+        break;
+      case TokenKind.MINUS:
+        code.command(VmOpcode.SUB);
+        break;
+      case TokenKind.STAR:
+        code.call("Math.multiply", 2);
+        break;
+      case TokenKind.SLASH:
+        code.call("Math.divide", 2);
+        break;
+      default:
+        throw new IllegalStateException("Unknown operator " +
+                TokenKind.lexeme(kind) + ".");
+    }
+  }
+
+  /**
+   * Generates a push of a 16-bit value. Only values from 0 to 32767 can be
+   * pushed directly, so others are pushed as the negation or complement of
+   * one that can.
+   * @param value the value
+   */
+  private void constant(int value){
+    if (value >= 0){
+      code.push(VmSegment.CONSTANT, value);
+    }
+    else if (value == Short.MIN_VALUE){
+      code.push(VmSegment.CONSTANT, Short.MAX_VALUE);
+      code.command(VmOpcode.NOT);
+    }
+    else {
+      code.push(VmSegment.CONSTANT, -value);
+      code.command(VmOpcode.NEG);
+    }
+  }
+
+  private void push(int variable){
+    int segment = ast.getValue(variable);
+    if (segment != Ast.UNRESOLVED){
+      code.push(SEGMENTS[segment], ast.getExtra(variable));
+    }
+  }
+
+  private void pop(int variable){
+    int segment = ast.getValue(variable);
+    if (segment != Ast.UNRESOLVED){
+      code.pop(SEGMENTS[segment], ast.getExtra(variable));
+    }
+  }
+}
@@ -1,4 +1,3 @@
-import java.io.FileNotFoundException;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -8,9 +7,9 @@ public class Compiler {
   /**
    * Function to run the Lexer (For testing purposes)
    * @param file The input file containing the source code
-   * @throws FileNotFoundException Thrown if the input file cannot be located
+   * @throws IOException Thrown if the input file cannot be located or read
    */
-  private static void runLexer(String file) throws FileNotFoundException{
+  private static void runLexer(String file) throws IOException{
 
     Lexer input = new Lexer();
     input.parseData(file);
@@ -69,7 +68,7 @@ public class Compiler {
     return files;
   }
 
-  public static void main(String[] args) throws FileNotFoundException{
+  public static void main(String[] args) throws IOException{
 
     if (args.length != 1){
       System.err.println("Error. Input directory required.");
@@ -88,15 +87,13 @@ public class Compiler {
 
       System.out.println("Parsing file " + file + "...");
       Parser parse = new Parser(file);
-//      Lexer input = parse.getLexer();
-//
-//      List<String> lines = input.getLines();
-//      for (String line : lines) {
-//        System.out.println(line);
-//      }
       System.out.println("Done.");
     }
 
+    if (Peephole.REPORT){
+      Peephole.standard().printReport(System.out);
+    }
+
     System.out.println("Finished.");
 
   }
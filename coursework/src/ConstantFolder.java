@@ -0,0 +1,136 @@
+/**
+ * Evaluates operators on constant operands while parsing, so that an
+ * expression such as 60 * 60 * 24 is compiled to a single push rather than
+ * to calls and arithmetic at run time.
+ *
+ * Values are those of the Hack platform: 16-bit two's complement integers,
+ * where every operation wraps around, true is -1 and false is 0. Integer
+ * constants, true, false and the results of earlier folds are constant.
+ * A division is not folded if it would divide by zero or if either operand
+ * is -32768, since Math.divide reports the first and cannot take the
+ * absolute value of the second, so its result is left for run time.
+ *
+ * Only operators whose operands are both constant are folded. An expression
+ * such as x + 1 + 2 associates to the left and is left as it is.
+ *
+ * Folding is done unless the jack.fold system property is set to "off".
+ *
+ * @author Adam Turner
+ */
+public final class ConstantFolder {
+
+  /** Whether the parser folds constant expressions */
+  public static final boolean ENABLED =
+          !"off".equals(System.getProperty("jack.fold", "on"));
+
+  /** Returned in place of a value for an expression that is not constant,
+   * which no 16-bit value can be mistaken for */
+  public static final int NOT_CONSTANT = Integer.MIN_VALUE;
+
+  private static final int MAX_CONSTANT = Short.MAX_VALUE;
+
+  private static final int TRUE = -1;
+  private static final int FALSE = 0;
+
+  private ConstantFolder(){
+  }
+
+  /**
+   * Returns the value of a node, if it is a constant
+   * @param ast the tree holding the node
+   * @param node the id of the node
+   * @return the value, or NOT_CONSTANT
+   */
+  public static int value(Ast ast, int node){
+    switch (ast.getKind(node)){
+      case Ast.CONSTANT:
+        return ast.getValue(node);
+      case Ast.TRUE:
+        return TRUE;
+      case Ast.FALSE:
+        return FALSE;
+      case Ast.NUMBER:
+        return parse(ast.getString(ast.getValue(node)));
+      default:
+        return NOT_CONSTANT;
+    }
+  }
+
+  /**
+   * Returns the value of an integer constant. A lexeme that is out of range,
+   * or written with leading zeros, is left exactly as it is in the source.
+   * @param lexeme the digits of the constant
+   * @return the value, or NOT_CONSTANT
+   */
+  private static int parse(String lexeme){
+    if (lexeme.length() > 5 ||
+            (lexeme.length() > 1 && lexeme.charAt(0) == '0')){
+      return NOT_CONSTANT;
+    }
+
+    int value = Integer.parseInt(lexeme);
+    return value <= MAX_CONSTANT ? value : NOT_CONSTANT;
+  }
+
+  /**
+   * Applies a binary operator to two constants
+   * @param operator the token kind of the operator
+   * @param left the value of the left operand, or NOT_CONSTANT
+   * @param right the value of the right operand, or NOT_CONSTANT
+   * @return the value of the expression, or NOT_CONSTANT if it cannot be
+   * found at compile time
+   */
+  public static int binary(int operator, int left, int right){
+    if (left == NOT_CONSTANT || right == NOT_CONSTANT){
+      return NOT_CONSTANT;
+    }
+
+    switch (operator){
+      case TokenKind.PLUS:
+        return (short) (left + right);
+      case TokenKind.MINUS:
+        return (short) (left - right);
+      case TokenKind.STAR:
+        return (short) (left * right);
+      case TokenKind.SLASH:
+        if (right == 0 || left == Short.MIN_VALUE ||
+                right == Short.MIN_VALUE){
+          return NOT_CONSTANT;
+        }
+        return (short) (left / right);
+      case TokenKind.AND:
+        return (short) (left & right);
+      case TokenKind.OR:
+        return (short) (left | right);
+      case TokenKind.ASSIGN:
+        return left == right ? TRUE : FALSE;
+      case TokenKind.LESS:
+        return left < right ? TRUE : FALSE;
+      case TokenKind.GREATER:
+        return left > right ? TRUE : FALSE;
+      default:
+        return NOT_CONSTANT;
+    }
+  }
+
+  /**
+   * Applies a unary operator to a constant
+   * @param operator the token kind of the operator
+   * @param operand the value of the operand, or NOT_CONSTANT
+   * @return the value of the expression, or NOT_CONSTANT
+   */
+  public static int unary(int operator, int operand){
+    if (operand == NOT_CONSTANT){
+      return NOT_CONSTANT;
+    }
+
+    switch (operator){
+      case TokenKind.MINUS:
+        return (short) -operand;
+      case TokenKind.TILDE:
+        return (short) ~operand;
+      default:
+        return NOT_CONSTANT;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Re-tokenizes a source file after a text edit without scanning the whole
+ * file again, for use by tools that keep a file's tokens up to date while it
+ * is being edited.
+ *
+ * Tokens that end before the edit cannot be affected by it, so scanning
+ * restarts from the end of the last of them. Scanning stops as soon as a
+ * new token starts, after the edit, at the same place in the unchanged text
+ * as one of the old tokens; from there on the old and new streams must be
+ * identical, so the rest of the old tokens are copied across with their
+ * positions shifted. An edit that opens or closes a comment simply keeps the
+ * two streams out of line for longer (possibly to the end of the file).
+ *
+ * @author Adam Turner
+ */
+public class IncrementalLexer {
+
+  /**
+   * Applies an edit to the source of a token stream and returns the tokens
+   * of the edited source.
+   * @param previous the tokens of the source before the edit
+   * @param offset the position in the old source at which the edit starts
+   * @param removed the number of characters removed from that position
+   * @param inserted the text inserted in their place
+   * @return the tokens of the edited source, which holds the new text
+   */
+  public static TokenBuffer relex(TokenBuffer previous, int offset,
+                                  int removed, String inserted){
+    char[] oldSource = previous.getSource();
+    int oldLength = previous.getSourceLength();
+    if (offset < 0 || removed < 0 || offset + removed > oldLength){
+      throw new IllegalArgumentException("Edit of " + removed + " characters " +
+              "at " + offset + " is outside of the source.");
+    }
+
+    int delta = inserted.length() - removed;
+    int newLength = oldLength + delta;
+    char[] source = new char[newLength];
+    System.arraycopy(oldSource, 0, source, 0, offset);
+    inserted.getChars(0, inserted.length(), source, offset);
+    System.arraycopy(oldSource, offset + removed, source,
+            offset + inserted.length(), oldLength - offset - removed);
+
+    // Keep every token that ends before the edit. The character following
+    // such a token is unchanged, so the token would be scanned identically.
+    int kept = tokensEndingBefore(previous, offset);
+    TokenBuffer tokens = new TokenBuffer(source, newLength,
+            previous.size() + 16);
+    tokens.addShifted(previous, 0, kept, 0, 0);
+
+    int start = 0;
+    int line = 1;
+    if (kept > 0){
+      start = previous.getOffset(kept - 1) + previous.getLength(kept - 1);
+      line = previous.getLineNum(kept - 1);
+    }
+    int lineStart = start;
+    while (lineStart > 0 && source[lineStart - 1] != '\n' &&
+            source[lineStart - 1] != '\r'){
+      lineStart--;
+    }
+
+    Lexer lexer = new Lexer(source, newLength, start, line, lineStart);
+    int editEnd = offset + inserted.length();
+    int next = kept; //The first old token that has not been passed yet
+    while (lexer.scanInto(tokens)){
+      int last = tokens.size() - 1;
+      int newOffset = tokens.getOffset(last);
+      if (newOffset < editEnd){
+        continue;
+      }
+
+      // The new token lies in unchanged text, so look for an old token that
+      // started at the same place before the edit moved it
+      int oldOffset = newOffset - delta;
+      while (next < previous.size() && previous.getOffset(next) < oldOffset){
+        next++;
+      }
+
+      if (next < previous.size() && previous.getOffset(next) == oldOffset){
+        int lineDelta = tokens.getLineNum(last) - previous.getLineNum(next);
+        tokens.truncate(last);
+        tokens.addShifted(previous, next, previous.size() - next, delta,
+                lineDelta);
+        break;
+      }
+    }
+
+    return tokens;
+  }
+
+  /**
+   * Counts the tokens that end strictly before the given offset. Since tokens
+   * are stored in order, these always form a prefix of the buffer.
+   * @param tokens the buffer to search
+   * @param offset a position in the source
+   * @return the number of tokens ending before the position
+   */
+  private static int tokensEndingBefore(TokenBuffer tokens, int offset){
+    int low = 0;
+    int high = tokens.size();
+    while (low < high){
+      int mid = (low + high) >>> 1;
+      if (tokens.getOffset(mid) + tokens.getLength(mid) < offset){
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
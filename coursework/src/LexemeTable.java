@@ -0,0 +1,101 @@
+/**
+ * An open addressing hash table of lexeme strings which can be searched
+ * directly with a range of characters, so that a String is only created
+ * the first time a particular lexeme is seen. Every later occurrence of the
+ * same lexeme shares that one instance.
+ *
+ * @author Adam Turner
+ */
+public class LexemeTable {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private String[] entries;
+  private int size;
+
+  /**
+   * Creates a new, empty LexemeTable
+   */
+  public LexemeTable(){
+    entries = new String[INITIAL_CAPACITY];
+    size = 0;
+  }
+
+  /**
+   * Returns the canonical string holding the given range of characters,
+   * creating and storing it if this is the first time it has been seen.
+   * @param chars the buffer holding the lexeme
+   * @param start the position of the first character of the lexeme
+   * @param length the number of characters in the lexeme
+   * @return the shared string for the lexeme
+   */
+  public String intern(char[] chars, int start, int length){
+    // Uses the same hash as String.hashCode() so that stored strings can
+    // be rejected using their cached hash before comparing characters
+    int hash = 0;
+    for (int i = start ; i < start + length ; ++i){
+      hash = 31 * hash + chars[i];
+    }
+
+    int mask = entries.length - 1;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    String entry;
+    while ((entry = entries[slot]) != null){
+      if (entry.hashCode() == hash && matches(entry, chars, start, length)){
+        return entry;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    entry = new String(chars, start, length);
+    entries[slot] = entry;
+    size++;
+    if (size * 2 > entries.length){
+      grow();
+    }
+
+    return entry;
+  }
+
+  /**
+   * Returns the number of distinct lexemes stored in the table
+   * @return size
+   */
+  public int size(){
+    return size;
+  }
+
+  private static boolean matches(String entry, char[] chars, int start,
+                                 int length){
+    if (entry.length() != length){
+      return false;
+    }
+
+    for (int i = 0 ; i < length ; ++i){
+      if (entry.charAt(i) != chars[start + i]){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Doubles the capacity of the table, rehashing every stored lexeme
+   */
+  private void grow(){
+    String[] old = entries;
+    entries = new String[old.length * 2];
+    int mask = entries.length - 1;
+
+    for (String entry : old){
+      if (entry != null){
+        int hash = entry.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (entries[slot] != null){
+          slot = (slot + 1) & mask;
+        }
+        entries[slot] = entry;
+      }
+    }
+  }
+}
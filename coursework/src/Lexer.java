@@ -1,8 +1,5 @@
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.nio.CharBuffer;
 
 /**
  * A simple class to represent a token.
@@ -25,17 +22,92 @@ class Token{
 
   private String lexeme;
   private TokenTypes type;
-  private int lineNum;
+  private int kind;
+  private long position;
+  private TokenBuffer tokens;
+  private int index;
 
   /**
    * Creates a new token object with the provided lexeme and token name/type
    * @param l the value of the lexeme (also called the token value/expression)
    * @param t the type of the token (e.g. identifier, operator, keyword, etc.)
+   * @param line the line number that the token was found on
    */
   public Token(String l, TokenTypes t, int line){
+    this(l, t, line, -1);
+  }
+
+  /**
+   * Creates a new token object with the provided lexeme, token name/type and
+   * position in the source file
+   * @param l the value of the lexeme (also called the token value/expression)
+   * @param t the type of the token (e.g. identifier, operator, keyword, etc.)
+   * @param line the line number that the token was found on
+   * @param offset the position of the first character of the token in the
+   * source, or -1 if it is not known
+   */
+  public Token(String l, TokenTypes t, int line, int offset){
+    this(l, t, TokenKind.of(l, t), line, offset);
+  }
+
+  /**
+   * Creates a new token object whose kind has already been worked out
+   * @param l the value of the lexeme (also called the token value/expression)
+   * @param t the type of the token (e.g. identifier, operator, keyword, etc.)
+   * @param k the kind of the token, one of the codes in TokenKind
+   * @param line the line number that the token was found on
+   * @param offset the position of the first character of the token in the
+   * source, or -1 if it is not known
+   */
+  public Token(String l, TokenTypes t, int k, int line, int offset){
     lexeme = l;
     type = t;
-    lineNum = line;
+    kind = k;
+    position = pack(line, offset);
+  }
+
+  /**
+   * Creates a token object that refers to an entry of a token buffer. The
+   * lexeme is not created until it is first asked for.
+   * @param tokens the buffer holding the token
+   * @param i the index of the token within the buffer
+   */
+  public Token(TokenBuffer tokens, int i){
+    type = tokens.getType(i);
+    kind = tokens.getKind(i);
+    position = tokens.getPosition(i);
+    this.tokens = tokens;
+    index = i;
+  }
+
+  /**
+   * Packs a line number and source offset into a single position value,
+   * with the line in the upper 32 bits and the offset in the lower 32 bits.
+   * The column can be recovered from the offset using a LineMap.
+   * @param line the line number
+   * @param offset the offset in the source
+   * @return the packed position
+   */
+  public static long pack(int line, int offset){
+    return ((long) line << 32) | (offset & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the line number held in a packed position
+   * @param position a position created by pack
+   * @return the line number
+   */
+  public static int lineOf(long position){
+    return (int) (position >>> 32);
+  }
+
+  /**
+   * Returns the source offset held in a packed position
+   * @param position a position created by pack
+   * @return the offset
+   */
+  public static int offsetOf(long position){
+    return (int) position;
   }
 
   /**
@@ -43,6 +115,9 @@ class Token{
    * @return lexeme
    */
   public String getLexeme() {
+    if (lexeme == null && tokens != null){
+      lexeme = tokens.getLexeme(index);
+    }
     return lexeme;
   }
 
@@ -54,34 +129,65 @@ class Token{
     return type;
   }
 
+  /**
+   * Returns the kind of the token, which tells apart every keyword,
+   * operator and punctuator
+   * @return kind, one of the codes in TokenKind
+   */
+  public int getKind() {
+    return kind;
+  }
+
   /**
    * Returns the line number that the current token was found on in the
    * source file
    * @return line
    */
   public int getLineNum() {
-    return lineNum;
+    return lineOf(position);
+  }
+
+  /**
+   * Returns the position in the source file of the first character of the
+   * token, or -1 if it is not known
+   * @return offset
+   */
+  public int getOffset() {
+    return offsetOf(position);
+  }
+
+  /**
+   * Returns the line number and source offset of the token packed into a
+   * single value
+   * @return position
+   */
+  public long getPosition() {
+    return position;
   }
 
   /**
-   * Sets the value of the lexeme field to the given value l.
+   * Sets the value of the lexeme field to the given value l. The kind is
+   * worked out again to match.
    * @param l The new value of lexeme
    */
   public void setLexeme(String l){
     lexeme = l;
+    kind = TokenKind.of(l, type);
   }
 
   /**
-   * Sets the value of type to the given value t.
+   * Sets the value of type to the given value t. The kind is worked out
+   * again to match.
    * @param t The new value of type
    */
   public void setType(TokenTypes t){
     type = t;
+    kind = TokenKind.of(getLexeme(), t);
   }
 
   @Override
   public String toString(){
-    return "<" + lexeme + ", " + type + ">" + " " + lineNum;
+    return "<" + getLexeme() + ", " + type + ">" + " " + getLineNum();
   }
 }
 
@@ -91,43 +197,324 @@ class Token{
 /**
  * A class to parse plain text from a Jack source file.
  *
+ * The whole file is held in a single character buffer which is scanned in
+ * one pass: comments and whitespace are skipped inline and tokens are
+ * produced on demand into a small fixed-size ring buffer of lookahead tokens.
+ *
  * @author Adam Turner
  */
 public class Lexer {
 
-  private List<String> rawData;
-  private List<String> lines;
-  private List<Token> tokens;
+  /** Maximum number of tokens that can be peeked at without consuming them.
+   * Must be a power of two so the ring buffer index can be masked. */
+  public static final int LOOKAHEAD = 4;
+
+  private char[] source;
+  private int length;
+  private int pos;
+  private LineMap lines;
+  private int tokenStart;
+
+  private Token[] lookahead;
+  private int head;
+  private int buffered;
+
+  private LexemeTable lexemes;
+
+  private int resumeState;
+  private boolean unclosedComment;
+
+  private TokenBuffer pretokenized;
+  private int replayed;
+  private LexerException pendingError;
+
+  private SwarScanner scanner;
 
-  private static final String[] KEYWORDS = {
-          "function", "do", "let", "class", "int", "boolean", "char",
-          "constructor", "method", "void", "var", "static", "field", "if",
-          "else", "while", "return", "true", "false", "this"
-  };
+  /** Kinds of the single character tokens, indexed by character */
+  private static final byte[] SYMBOL_KINDS = new byte[128];
+
+  // Character classes used to index the transition table. Every ASCII
+  // character maps to one of these through CHAR_CLASS, anything outside
+  // ASCII is classified by slowClassOf.
+  private static final int C_OTHER = 0;
+  private static final int C_SPACE = 1;
+  private static final int C_NEWLINE = 2;
+  private static final int C_RETURN = 3;
+  private static final int C_LETTER = 4;
+  private static final int C_DIGIT = 5;
+  private static final int C_SLASH = 6;
+  private static final int C_STAR = 7;
+  private static final int C_EQUALS = 8;
+  private static final int C_LESS = 9;
+  private static final int C_GREATER = 10;
+  private static final int C_TILDE = 11;
+  private static final int C_OPERATOR = 12;
+  private static final int C_PUNCTUATOR = 13;
+  private static final int C_TERMINATOR = 14;
+  private static final int C_BRACKET = 15;
+  private static final int C_DOT = 16;
+  private static final int C_COMMA = 17;
+  private static final int C_DOUBLE_QUOTE = 18;
+  private static final int C_SINGLE_QUOTE = 19;
+  private static final int C_EOF = 20;
+  private static final int CLASS_COUNT = 21;
+
+  // States of the scanner. States from S_PUNCTUATOR onwards have read a
+  // complete token and accept on whatever character comes next.
+  private static final int S_START = 0;
+  private static final int S_IDENTIFIER = 1;
+  private static final int S_NUMBER = 2;
+  private static final int S_SLASH = 3;
+  private static final int S_LINE_COMMENT = 4;
+  private static final int S_BLOCK_COMMENT = 5;
+  private static final int S_BLOCK_STAR = 6;
+  private static final int S_EQUALS = 7;
+  private static final int S_LESS = 8;
+  private static final int S_GREATER = 9;
+  private static final int S_TILDE = 10;
+  private static final int S_STRING = 11;
+  private static final int S_CHARACTER = 12;
+  private static final int S_PUNCTUATOR = 13;
+  private static final int S_TERMINATOR = 14;
+  private static final int S_ARRAY_INDEX = 15;
+  private static final int S_MEMBERSHIP = 16;
+  private static final int S_SEPARATOR = 17;
+  private static final int S_OPERATOR = 18;
+  private static final int S_COMPARISON = 19;
+  private static final int S_LEQ = 20;
+  private static final int S_GEQ = 21;
+  private static final int S_NEQ = 22;
+  private static final int S_STRING_END = 23;
+  private static final int S_CHARACTER_END = 24;
+  private static final int STATE_COUNT = 25;
+
+  // Actions in the transition table that do not lead to another state
+  private static final byte ACCEPT = -1;
+  private static final byte UNEXPECTED = -2;
+  private static final byte UNTERMINATED = -3;
+  private static final byte END = -4;
+
+  /** States whose runs of uninteresting characters a SwarScanner can skip */
+  private static final boolean[] SKIPPABLE = new boolean[STATE_COUNT];
+
+  private static final byte[] CHAR_CLASS = new byte[128];
+  private static final byte[] TRANSITIONS = new byte[STATE_COUNT * CLASS_COUNT];
+  private static final Token.TokenTypes[] ACCEPTS =
+          new Token.TokenTypes[STATE_COUNT];
+  /** Kinds of the tokens accepted in states that can hold more than one
+   * character (other than identifiers, which may be keywords) */
+  private static final byte[] STATE_KINDS = new byte[STATE_COUNT];
+
+  static {
+    for (char c = 'a' ; c <= 'z' ; ++c){
+      CHAR_CLASS[c] = C_LETTER;
+      CHAR_CLASS[Character.toUpperCase(c)] = C_LETTER;
+    }
+    for (char c = '0' ; c <= '9' ; ++c){
+      CHAR_CLASS[c] = C_DIGIT;
+    }
+    CHAR_CLASS['_'] = C_LETTER;
+    CHAR_CLASS[' '] = C_SPACE;
+    CHAR_CLASS['\t'] = C_SPACE;
+    CHAR_CLASS['\n'] = C_NEWLINE;
+    CHAR_CLASS['\r'] = C_RETURN;
+    CHAR_CLASS['/'] = C_SLASH;
+    CHAR_CLASS['*'] = C_STAR;
+    CHAR_CLASS['='] = C_EQUALS;
+    CHAR_CLASS['<'] = C_LESS;
+    CHAR_CLASS['>'] = C_GREATER;
+    CHAR_CLASS['~'] = C_TILDE;
+    CHAR_CLASS['+'] = C_OPERATOR;
+    CHAR_CLASS['-'] = C_OPERATOR;
+    CHAR_CLASS['|'] = C_OPERATOR;
+    CHAR_CLASS['&'] = C_OPERATOR;
+    CHAR_CLASS['('] = C_PUNCTUATOR;
+    CHAR_CLASS[')'] = C_PUNCTUATOR;
+    CHAR_CLASS['{'] = C_PUNCTUATOR;
+    CHAR_CLASS['}'] = C_PUNCTUATOR;
+    CHAR_CLASS[';'] = C_TERMINATOR;
+    CHAR_CLASS['['] = C_BRACKET;
+    CHAR_CLASS[']'] = C_BRACKET;
+    CHAR_CLASS['.'] = C_DOT;
+    CHAR_CLASS[','] = C_COMMA;
+    CHAR_CLASS['"'] = C_DOUBLE_QUOTE;
+    CHAR_CLASS['\''] = C_SINGLE_QUOTE;
+
+    for (int kind = TokenKind.LEFT_PAREN ; kind <= TokenKind.TILDE ; ++kind){
+      SYMBOL_KINDS[TokenKind.lexeme(kind).charAt(0)] = (byte) kind;
+    }
+
+    //Every state that holds a complete token accepts by default
+    for (int s = 0 ; s < STATE_COUNT ; ++s){
+      fillRow(s, ACCEPT);
+    }
+
+    fillRow(S_START, UNEXPECTED);
+    setTransition(S_START, C_SPACE, S_START);
+    setTransition(S_START, C_NEWLINE, S_START);
+    setTransition(S_START, C_RETURN, S_START);
+    setTransition(S_START, C_EOF, END);
+    setTransition(S_START, C_LETTER, S_IDENTIFIER);
+    setTransition(S_START, C_DIGIT, S_NUMBER);
+    setTransition(S_START, C_SLASH, S_SLASH);
+    setTransition(S_START, C_STAR, S_OPERATOR);
+    setTransition(S_START, C_OPERATOR, S_OPERATOR);
+    setTransition(S_START, C_EQUALS, S_EQUALS);
+    setTransition(S_START, C_LESS, S_LESS);
+    setTransition(S_START, C_GREATER, S_GREATER);
+    setTransition(S_START, C_TILDE, S_TILDE);
+    setTransition(S_START, C_PUNCTUATOR, S_PUNCTUATOR);
+    setTransition(S_START, C_TERMINATOR, S_TERMINATOR);
+    setTransition(S_START, C_BRACKET, S_ARRAY_INDEX);
+    setTransition(S_START, C_DOT, S_MEMBERSHIP);
+    setTransition(S_START, C_COMMA, S_SEPARATOR);
+    setTransition(S_START, C_DOUBLE_QUOTE, S_STRING);
+    setTransition(S_START, C_SINGLE_QUOTE, S_CHARACTER);
+
+    setTransition(S_IDENTIFIER, C_LETTER, S_IDENTIFIER);
+    setTransition(S_IDENTIFIER, C_DIGIT, S_IDENTIFIER);
+    setTransition(S_NUMBER, C_DIGIT, S_NUMBER);
+
+    //A slash is either division or the start of a comment. Comments return
+    // to the start state once they are closed (or the input runs out).
+    setTransition(S_SLASH, C_SLASH, S_LINE_COMMENT);
+    setTransition(S_SLASH, C_STAR, S_BLOCK_COMMENT);
+    fillRow(S_LINE_COMMENT, S_LINE_COMMENT);
+    setTransition(S_LINE_COMMENT, C_NEWLINE, S_START);
+    setTransition(S_LINE_COMMENT, C_RETURN, S_START);
+    setTransition(S_LINE_COMMENT, C_EOF, S_START);
+    fillRow(S_BLOCK_COMMENT, S_BLOCK_COMMENT);
+    setTransition(S_BLOCK_COMMENT, C_STAR, S_BLOCK_STAR);
+    setTransition(S_BLOCK_COMMENT, C_EOF, S_START);
+    fillRow(S_BLOCK_STAR, S_BLOCK_COMMENT);
+    setTransition(S_BLOCK_STAR, C_STAR, S_BLOCK_STAR);
+    setTransition(S_BLOCK_STAR, C_SLASH, S_START);
+    setTransition(S_BLOCK_STAR, C_EOF, S_START);
+
+    //Operators which may be followed by an equals
+    setTransition(S_EQUALS, C_EQUALS, S_COMPARISON);
+    setTransition(S_LESS, C_EQUALS, S_LEQ);
+    setTransition(S_GREATER, C_EQUALS, S_GEQ);
+    setTransition(S_TILDE, C_EQUALS, S_NEQ);
+
+    //String and character literals must be closed on the line they start
+    fillRow(S_STRING, S_STRING);
+    setTransition(S_STRING, C_DOUBLE_QUOTE, S_STRING_END);
+    fillRow(S_CHARACTER, S_CHARACTER);
+    setTransition(S_CHARACTER, C_SINGLE_QUOTE, S_CHARACTER_END);
+    for (int s : new int[]{S_STRING, S_CHARACTER}){
+      setTransition(s, C_NEWLINE, UNTERMINATED);
+      setTransition(s, C_RETURN, UNTERMINATED);
+      setTransition(s, C_EOF, UNTERMINATED);
+    }
+
+    SKIPPABLE[S_START] = true;
+    SKIPPABLE[S_LINE_COMMENT] = true;
+    SKIPPABLE[S_BLOCK_COMMENT] = true;
+    SKIPPABLE[S_STRING] = true;
+
+    STATE_KINDS[S_NUMBER] = TokenKind.NUMBER;
+    STATE_KINDS[S_STRING_END] = TokenKind.STRING;
+    STATE_KINDS[S_CHARACTER_END] = TokenKind.CHARACTER;
+    STATE_KINDS[S_COMPARISON] = TokenKind.EQUALS;
+    STATE_KINDS[S_LEQ] = TokenKind.LESS_EQUAL;
+    STATE_KINDS[S_GEQ] = TokenKind.GREATER_EQUAL;
+    STATE_KINDS[S_NEQ] = TokenKind.NOT_EQUAL;
+
+    ACCEPTS[S_IDENTIFIER] = Token.TokenTypes.id;
+    ACCEPTS[S_NUMBER] = Token.TokenTypes.num;
+    ACCEPTS[S_SLASH] = Token.TokenTypes.operator;
+    ACCEPTS[S_EQUALS] = Token.TokenTypes.assignop;
+    ACCEPTS[S_LESS] = Token.TokenTypes.operator;
+    ACCEPTS[S_GREATER] = Token.TokenTypes.operator;
+    ACCEPTS[S_TILDE] = Token.TokenTypes.not;
+    ACCEPTS[S_PUNCTUATOR] = Token.TokenTypes.punctuator;
+    ACCEPTS[S_TERMINATOR] = Token.TokenTypes.terminator;
+    ACCEPTS[S_ARRAY_INDEX] = Token.TokenTypes.arrayIndex;
+    ACCEPTS[S_MEMBERSHIP] = Token.TokenTypes.membership;
+    ACCEPTS[S_SEPARATOR] = Token.TokenTypes.separator;
+    ACCEPTS[S_OPERATOR] = Token.TokenTypes.operator;
+    ACCEPTS[S_COMPARISON] = Token.TokenTypes.equals;
+    ACCEPTS[S_LEQ] = Token.TokenTypes.leq;
+    ACCEPTS[S_GEQ] = Token.TokenTypes.geq;
+    ACCEPTS[S_NEQ] = Token.TokenTypes.neq;
+    ACCEPTS[S_STRING_END] = Token.TokenTypes.string;
+    ACCEPTS[S_CHARACTER_END] = Token.TokenTypes.character;
+  }
+
+  private static void fillRow(int state, int action){
+    for (int c = 0 ; c < CLASS_COUNT ; ++c){
+      TRANSITIONS[state * CLASS_COUNT + c] = (byte) action;
+    }
+  }
+
+  private static void setTransition(int state, int charClass, int action){
+    TRANSITIONS[state * CLASS_COUNT + charClass] = (byte) action;
+  }
 
   /**
    * Create a new Lexer object with no stored data.
    */
   public Lexer(){
-    rawData = new ArrayList<>();
-    lines = new ArrayList<>();
-    tokens = new ArrayList<>();
+    source = new char[0];
+    length = 0;
+    pos = 0;
+    lines = new LineMap();
+    lookahead = new Token[LOOKAHEAD];
+    head = 0;
+    buffered = 0;
+    lexemes = new LexemeTable();
+    resumeState = S_START;
+    unclosedComment = false;
+    pretokenized = null;
+    replayed = 0;
+    pendingError = null;
+    scanner = null;
   }
 
   /**
-   * Returns the current state of the rawData field.
-   * @return rawData
+   * Create a new Lexer that scans part of an existing source buffer, starting
+   * from a position that lies between two tokens (i.e. not inside a token
+   * or a comment).
+   * @param source the buffer holding the source text
+   * @param length the number of characters of source text in the buffer
+   * @param start the position to start scanning from
+   * @param line the line number of the start position
+   * @param lineStart the offset of the start of that line
    */
-  public List<String> getRawData() {
-    return rawData;
+  Lexer(char[] source, int length, int start, int line, int lineStart){
+    this();
+    this.source = source;
+    this.length = length;
+    pos = start;
+    lines = new LineMap(line, lineStart);
   }
 
   /**
-   * Returns the current state of the getLines field.
-   * @return lines
+   * Sets the scanner used to skip over whitespace, comments and string
+   * literals, which must cover the whole of the input
+   * @param scanner the scanner, or null to examine every character here
    */
-  public List<String> getLines() {
-    return lines;
+  void setScanner(SwarScanner scanner){
+    this.scanner = scanner;
+  }
+
+  /**
+   * Makes the next scan begin as though it were already inside a block
+   * comment, for a lexer started part way through a file just after the
+   * comment was opened.
+   */
+  void resumeInComment(){
+    resumeState = S_BLOCK_COMMENT;
+  }
+
+  /**
+   * Returns whether the input ran out while inside a block comment. This is
+   * only meaningful once every token has been scanned.
+   * @return true if the last block comment was never closed
+   */
+  boolean endsInComment(){
+    return unclosedComment;
   }
 
   /**
@@ -136,12 +523,14 @@ public class Lexer {
    * @return token
    */
   public Token getNextToken() {
-    if (tokens.size() == 0){
+    if (!fill(1)){
       return null;
     }
 
-    Token toReturn = tokens.get(0);
-    tokens.remove(0);
+    Token toReturn = lookahead[head];
+    lookahead[head] = null;
+    head = (head + 1) & (LOOKAHEAD - 1);
+    buffered--;
     return toReturn;
   }
 
@@ -151,242 +540,527 @@ public class Lexer {
    * @return token
    */
   public Token peekNextToken() {
-    if (tokens.size() == 0){
+    return peekToken(0);
+  }
+
+  /**
+   * Returns the token k positions ahead in the token stream without
+   * removing any tokens from the stream. peekToken(0) is the next token.
+   * @param k how far ahead to look, must be less than LOOKAHEAD
+   * @return token, or null if the stream ends before then
+   */
+  public Token peekToken(int k) {
+    if (k < 0 || k >= LOOKAHEAD){
+      throw new IllegalArgumentException("Lookahead of " + k + " is outside" +
+              " the range 0 to " + (LOOKAHEAD - 1) + ".");
+    }
+
+    if (!fill(k + 1)){
       return null;
     }
 
-    return tokens.get(0);
+    return lookahead[(head + k) & (LOOKAHEAD - 1)];
   }
 
   /**
-   * Reads the data stored within the provided file and removes the comments.
-   * @param filename The name of the file to be read
-   * @throws FileNotFoundException Throws the checked FileNotFoundException
-   * from the IO library.
+   * Scans tokens into the lookahead buffer until it holds at least count
+   * tokens or the end of the input has been reached.
+   * @param count the number of tokens required in the buffer
+   * @return true if the buffer holds at least count tokens
    */
-  public void parseData(String filename) throws FileNotFoundException {
-    Scanner input = new Scanner(new File(filename));
+  private boolean fill(int count) {
+    while (buffered < count){
+      Token t = scanToken();
+      if (t == null){
+        return false;
+      }
 
-    while (input.hasNextLine()){
-      rawData.add(input.nextLine());
+      lookahead[(head + buffered) & (LOOKAHEAD - 1)] = t;
+      buffered++;
     }
 
-    removeComments(); //Remove all the comments from the file
-    tokenizer();
+    return true;
   }
 
-  private void removeComments() {
-    StringBuilder builder = new StringBuilder();
-    boolean write = true, singleLineComment = false, multiLineComment = false;
+  /**
+   * Scans all of the remaining input into a compact token buffer instead of
+   * producing Token objects one at a time. This must be called before any
+   * tokens have been read from the lexer.
+   * @return a buffer holding every remaining token
+   */
+  public TokenBuffer tokenize() {
+    if (buffered > 0 || replayed > 0){
+      throw new IllegalStateException("Tokens have already been read from " +
+              "the lexer.");
+    }
+    if (pretokenized != null){
+      if (pendingError != null){
+        throw pendingError;
+      }
+      return pretokenized;
+    }
+
+    // Jack averages roughly one token for every six characters of source
+    TokenBuffer tokens = new TokenBuffer(source, length,
+            (length - pos) / 6 + 16);
+    while (scanInto(tokens)){
+      // Keep scanning until the input runs out
+    }
 
-    for (String line : rawData){
-      for (int i=0 ; i<line.length()-1 ; ++i){
-        if (line.charAt(i) == '/' && line.charAt(i+1) == '/'){
-          singleLineComment = true;
-        }
-        else if (line.charAt(i) == '/' && line.charAt(i+1) == '*'){
-          multiLineComment = true;
-        }
-        else if (line.charAt(i) == '*' && line.charAt(i+1) == '/'){
-          multiLineComment = false;
-          write = true;
-
-          //Advance the input to skip over the comment symbols.
-          //If the new value of i is greater or equal to the length of the line,
-          // then move onto the next line
-          i = i+2;
-          if (i>=line.length()){
-            continue;
-          }
-          builder.append(" "); //Add whitespace to preserve the spacing
+    return tokens;
+  }
+
+  /**
+   * Scans all of the remaining input into a token buffer, as tokenize()
+   * does, and from then on reads tokens by replaying the buffer. A lexical
+   * error ends the scan early, but is held back and only thrown once every
+   * token before it has been read, just as it would be when scanning
+   * lazily. This must be called before any tokens have been read from the
+   * lexer.
+   * @return a buffer holding every remaining token, up to any error
+   */
+  TokenBuffer bufferTokens() {
+    if (pretokenized == null){
+      if (buffered > 0){
+        throw new IllegalStateException("Tokens have already been read from " +
+                "the lexer.");
+      }
+
+      TokenBuffer tokens = new TokenBuffer(source, length,
+              (length - pos) / 6 + 16);
+      try {
+        while (scanInto(tokens)){
+          // Keep scanning until the input runs out
         }
+      }
+      catch (LexerException e){
+        pendingError = e;
+      }
+
+      pretokenized = tokens;
+      replayed = 0;
+    }
+
+    return pretokenized;
+  }
+
+  /**
+   * Returns the index in the token buffer of the next token to be read. Only
+   * meaningful once the lexer is replaying a buffer.
+   * @return the index of the next token
+   */
+  int tokenIndex() {
+    return replayed - buffered;
+  }
+
+  /**
+   * Moves a lexer that is replaying a buffer so that the next token read is
+   * the one at the given index, discarding any lookahead.
+   * @param index the index of the next token to read
+   */
+  void seek(int index) {
+    for (int i = 0 ; i < LOOKAHEAD ; ++i){
+      lookahead[i] = null;
+    }
+    head = 0;
+    buffered = 0;
+    replayed = index;
+  }
+
+  /**
+   * Returns a new lexer that replays the token buffer of this one from the
+   * given index. It reads the buffer through a view of its own, so it can
+   * be used on another thread, and throws any held back error when it
+   * reaches it. This lexer must already be replaying a buffer.
+   * @param index the index of the first token to read
+   * @return the new lexer
+   */
+  Lexer replayFrom(int index) {
+    Lexer replay = new Lexer();
+    replay.source = source;
+    replay.length = length;
+    replay.pos = length;
+    replay.lines = lines;
+    replay.pretokenized = pretokenized.view();
+    replay.replayed = index;
+    replay.pendingError = pendingError;
+    return replay;
+  }
+
+  /**
+   * Lets go of the source text, line table and token buffer, so that they
+   * can be garbage collected once nothing else refers to them. The lexer
+   * has no input left afterwards.
+   */
+  void release() {
+    seek(0);
+    source = new char[0];
+    length = 0;
+    pos = 0;
+    lines = new LineMap();
+    pretokenized = null;
+    pendingError = null;
+    scanner = null;
+  }
+
+  /**
+   * Scans the next token and appends it to the given buffer.
+   * @param tokens the buffer to add the token to
+   * @return true if a token was added, or false if there is no input left
+   */
+  boolean scanInto(TokenBuffer tokens) {
+    int state = scan();
+    if (state == END){
+      return false;
+    }
+
+    int tokenLength = pos - tokenStart;
+    int kind = kindOf(state, source, tokenStart, tokenLength);
+    tokens.add(typeOf(state, kind), kind, tokenStart, tokenLength,
+            lines.getLineCount());
+    return true;
+  }
+
+  /**
+   * Reads the contents of the provided file into the character buffer.
+   * Tokens are not scanned until they are requested, except in very large
+   * files which are tokenized up front by a ParallelLexer and then replayed.
+   * @param filename The name of the file to be read
+   * @throws IOException Thrown if the file cannot be found or read
+   */
+  public void parseData(String filename) throws IOException {
+    CharBuffer input = SourceLoader.load(filename);
 
-        //If we detect either a single or multi-line comment, do not write chars
-        if (write && (singleLineComment || multiLineComment)){
-          write = false;
+    source = input.array();
+    length = input.limit();
+    pos = 0;
+    lines = new LineMap();
+    pretokenized = null;
+    replayed = 0;
+    pendingError = null;
+    scanner = null;
+
+    if (ParallelLexer.shouldSplit(length)){
+      //As in bufferTokens(), an error is only thrown once the tokens before
+      // it have been read
+      ParallelLexer.Result result = ParallelLexer.bufferTokens(source, length,
+              lines);
+      pretokenized = result.getTokens();
+      pendingError = result.getError();
+      pos = length;
+    }
+    else {
+      scanner = SwarScanner.create(source, 0, length);
+    }
+  }
+
+  /**
+   * Returns the table of line start offsets for the part of the source that
+   * has been scanned so far. Once every token has been read it covers the
+   * whole file, and can be used to find the column of any token.
+   * @return lines
+   */
+  public LineMap getLineMap() {
+    return lines;
+  }
+
+  /**
+   * Returns the character class of the character at the given position, or
+   * C_EOF if the position is past the end of the input.
+   * @param index a position in the source buffer
+   * @return the class of the character at that position
+   */
+  private int classAt(int index) {
+    if (index >= length){
+      return C_EOF;
+    }
+
+    char c = source[index];
+    return c < 128 ? CHAR_CLASS[c] : slowClassOf(c);
+  }
+
+  /**
+   * Classifies a character outside of the ASCII range, matching the
+   * treatment of letters, digits and whitespace by the Character class.
+   * @param c a non-ASCII character
+   * @return the class of the character
+   */
+  private static int slowClassOf(char c) {
+    if (Character.isLetter(c)){
+      return C_LETTER;
+    }
+    else if (Character.isDigit(c)){
+      return C_DIGIT;
+    }
+    else if (Character.isSpaceChar(c)){
+      return C_SPACE;
+    }
+    return C_OTHER;
+  }
+
+  /**
+   * Scans the next token from the current position in the source buffer.
+   * @return the next token, or null if there is no input left
+   */
+  private Token scanToken() {
+    if (pretokenized != null){
+      if (replayed < pretokenized.size()){
+        return pretokenized.getToken(replayed++);
+      }
+      if (pendingError != null){
+        throw pendingError;
+      }
+      return null;
+    }
+
+    int state = scan();
+    if (state == END){
+      return null;
+    }
+
+    int tokenLength = pos - tokenStart;
+    int kind = kindOf(state, source, tokenStart, tokenLength);
+    String value = TokenKind.lexeme(kind);
+    if (value == null){
+      value = lexemes.intern(source, tokenStart, tokenLength);
+    }
+
+    return new Token(value, typeOf(state, kind), kind, lines.getLineCount(),
+            tokenStart);
+  }
+
+  /**
+   * Runs the state machine from the current position until it accepts a
+   * token, which then runs from tokenStart up to (but not including) the
+   * current position. Whitespace and comments are consumed along the way,
+   * recording the start of each new line passed over ("\r\n" counts as one
+   * line break).
+   * @return the accepting state, or END if there is no input left
+   */
+  private int scan() {
+    int state = resumeState;
+    int start = pos;
+    resumeState = S_START;
+
+    while (true){
+      if (scanner != null && SKIPPABLE[state]){
+        //Jump straight to the next character that could change the state.
+        // Single spaces between tokens are left to the state machine.
+        switch (state){
+          case S_START:
+            if (pos + 1 < length && source[pos] == ' ' && source[pos + 1] == ' '){
+              pos = scanner.skipBlanks(pos);
+            }
+            break;
+          case S_LINE_COMMENT:
+            pos = scanner.findLineEnd(pos);
+            break;
+          case S_BLOCK_COMMENT:
+            pos = scanner.findCommentBreak(pos);
+            break;
+          case S_STRING:
+            pos = scanner.findStringBreak(pos);
+            break;
+          default:
+            break;
         }
+      }
 
-        if (write){
-          builder.append(line.charAt(i));
+      int charClass = classAt(pos);
+      int next = TRANSITIONS[state * CLASS_COUNT + charClass];
 
-          //Stops the final character from being trimmed from the StringBuilder
-          if (i == line.length()-2){
-            builder.append(line.charAt(line.length()-1));
-          }
+      if (next < 0){
+        switch (next){
+          case ACCEPT:
+            tokenStart = start;
+            return state;
+          case END:
+            return END;
+          case UNTERMINATED:
+            throw new LexerException("Unterminated literal on line " +
+                    describePosition(start) + ": missing closing " +
+                    source[start] + ".");
+          default:
+            throw new LexerException("Unexpected symbol on line " +
+                    describePosition(pos) + ": '" + source[pos] + "'. Symbol " +
+                    "is not recognised.");
         }
       }
 
-      if (line.length() == 1 && !(Character.isSpaceChar(line.charAt(0)))){
-        builder.append(line.charAt(0)); //Adds lines that are a single character
+      if (next != state && state == S_START){
+        start = pos; //A token (or comment) begins with this character
       }
 
-      if (builder.length() > 0){
-        lines.add(builder.toString());
-        builder.delete(0, builder.length()); //Reset the StringBuilder
+      if (charClass == C_NEWLINE || (charClass == C_RETURN &&
+              classAt(pos + 1) != C_NEWLINE)){
+        lines.addLine(pos + 1);
       }
-      else{
-        //If the line was entirely a comment, add an empty line to preserve
-        // the spacing in the original file
-        lines.add("");
+      if (charClass != C_EOF){
+        pos++;
       }
-
-      write = true;
-      if (singleLineComment) {
-        singleLineComment = false;
+      else if (state == S_BLOCK_COMMENT || state == S_BLOCK_STAR){
+        unclosedComment = true;
       }
+      state = next;
     }
   }
 
-  private void tokenizer() {
-    StringBuilder lexeme = new StringBuilder();
-
-    for (String line : lines){
-      int i=0;
-      while (i<line.length()) {
-        char firstChar = line.charAt(i);
-        int currLine = lines.indexOf(line) + 1;
-        if (Character.isLetter(firstChar) || firstChar == '_') {
-          while (i < line.length() && (Character.isLetter(line.charAt(i)) || Character.isDigit(line.charAt(i)) || line.charAt(i) == '_')) {
-            lexeme.append(line.charAt(i));
-            i++;
-          }
-          i--; //Decrement position so we dont consume next token by accident
-
-          String value = lexeme.toString();
-          boolean key = false;
-          for (String keyword : KEYWORDS){
-            if (value.equals(keyword)){
-              key = true;
-              break; //We've found our key value so terminate the loop
-            }
-          }
-
-          if (key){
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.keyword,
-             currLine));
-          }
-          else if (value.equals("true") || value.equals("false")){
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.bool,
-                    currLine));
-          }
-          else if (value.equals("null")){
-            tokens.add(new Token(lexeme.toString(),
-                    Token.TokenTypes.nullReference, currLine));
-          }
-          else{
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.id, currLine));
-          }
+  /**
+   * Describes a position on the current line for use in error messages
+   * @param offset a position on the current line
+   * @return the line and column of the position
+   */
+  private String describePosition(int offset) {
+    int line = lines.getLineCount();
+    return line + ", column " + (offset - lines.getLineStart(line) + 1);
+  }
+
+  /**
+   * Returns the type of a token that the state machine accepted.
+   * Identifiers are split into keywords, null and plain identifiers using
+   * the kind of the token.
+   * @param state the accepting state that the scanner stopped in
+   * @param kind the kind of the token
+   * @return the type of the token
+   */
+  private static Token.TokenTypes typeOf(int state, int kind) {
+    if (state != S_IDENTIFIER || kind == TokenKind.IDENTIFIER){
+      return ACCEPTS[state];
+    }
+    return kind == TokenKind.NULL ? Token.TokenTypes.nullReference :
+            Token.TokenTypes.keyword;
+  }
+
+  /**
+   * Returns the kind of a token that the state machine accepted, without
+   * creating a string. Keywords and symbols each have a kind of their own,
+   * and so a shared lexeme, so only the remaining tokens ever need their
+   * text copied out of the source.
+   * @param state the accepting state that the scanner stopped in
+   * @param chars the buffer holding the token
+   * @param start the position of the first character of the token
+   * @param tokenLength the number of characters in the token
+   * @return the kind of the token
+   */
+  private static int kindOf(int state, char[] chars, int start,
+                            int tokenLength) {
+    if (state == S_IDENTIFIER){
+      return keyword(chars, start, tokenLength);
+    }
+    //Apart from numbers, every single character token is an ASCII symbol
+    if (tokenLength == 1 && state != S_NUMBER){
+      return SYMBOL_KINDS[chars[start]];
+    }
+    return STATE_KINDS[state];
+  }
+
+  /**
+   * Checks whether the given range of characters is a reserved word without
+   * creating a string, by switching on its length and first character
+   * before comparing the remaining characters.
+   * @param chars the buffer holding the word
+   * @param start the position of the first character of the word
+   * @param wordLength the number of characters in the word
+   * @return the kind of the reserved word, or IDENTIFIER if the word is not
+   * reserved
+   */
+  private static int keyword(char[] chars, int start, int wordLength) {
+    char first = chars[start];
+    switch (wordLength){
+      case 2:
+        if (first == 'd'){
+          return matches(chars, start, TokenKind.DO);
+        }
+        if (first == 'i'){
+          return matches(chars, start, TokenKind.IF);
+        }
+        break;
+      case 3:
+        if (first == 'l'){
+          return matches(chars, start, TokenKind.LET);
+        }
+        if (first == 'i'){
+          return matches(chars, start, TokenKind.INT);
+        }
+        if (first == 'v'){
+          return matches(chars, start, TokenKind.VAR);
+        }
+        break;
+      case 4:
+        if (first == 'c'){
+          return matches(chars, start, TokenKind.CHAR);
         }
-        else if (firstChar == '(' || firstChar == ')' || firstChar == '{' || firstChar == '}') {
-          lexeme.append(firstChar);
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.punctuator
-                  , currLine));
+        if (first == 'v'){
+          return matches(chars, start, TokenKind.VOID);
         }
-        else if (firstChar == ';'){
-          lexeme.append(firstChar);
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.terminator
-                  , currLine));
+        if (first == 'e'){
+          return matches(chars, start, TokenKind.ELSE);
         }
-        else if (firstChar == '[' || firstChar == ']'){
-          lexeme.append(firstChar);
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.arrayIndex
-                  , currLine));
+        if (first == 't'){
+          return chars[start+1] == 'r' ? matches(chars, start, TokenKind.TRUE) :
+                  matches(chars, start, TokenKind.THIS);
         }
-        else if (firstChar == '.'){
-          lexeme.append(firstChar);
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.membership
-                  , currLine));
+        if (first == 'n'){
+          return matches(chars, start, TokenKind.NULL);
         }
-        else if (firstChar == '='){
-          i++;
-          lexeme.append(firstChar);
-          //Check to see if token is assign operator or comparison operator
-          if (line.charAt(i) == '='){
-            lexeme.append(line.charAt(i));
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.equals,
-                    currLine));
-          }
-          else {
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.assignop
-                    , currLine));
-          }
+        break;
+      case 5:
+        if (first == 'c'){
+          return matches(chars, start, TokenKind.CLASS);
         }
-        else if (firstChar == ','){
-          lexeme.append(firstChar);
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.separator,
-           currLine));
+        if (first == 'f'){
+          return chars[start+1] == 'i' ? matches(chars, start, TokenKind.FIELD) :
+                  matches(chars, start, TokenKind.FALSE);
         }
-        else if (firstChar == '+' || firstChar == '-' || firstChar == '/' ||
-                firstChar == '*' || firstChar == '<' || firstChar == '>' ||
-                firstChar == '~' || firstChar == '|' || firstChar == '&'){
-          lexeme.append(firstChar);
-
-          //Check to see if operator is followed by an equals. If so, and if
-          // starting operator was '<' or '>', token must be comparison operator
-          if ((firstChar == '<' && line.charAt(i+1) == '=')){
-            lexeme.append(line.charAt(i+1));
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.leq, currLine));
-            i++;
-          }
-          else if (firstChar == '>' && line.charAt(i+1) == '='){
-            lexeme.append(line.charAt(i+1));
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.geq, currLine));
-            i++;
-          }
-          else if (firstChar == '~' && line.charAt(i+1) == '='){
-            lexeme.append(line.charAt(i+1));
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.neq,
-                    currLine));
-          }
-          else if (firstChar == '~'){
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.not,
-                    currLine));
-          }
-          else {
-            tokens.add(new Token(lexeme.toString(), Token.TokenTypes.operator
-                    , currLine));
-          }
+        if (first == 'w'){
+          return matches(chars, start, TokenKind.WHILE);
         }
-        else if (firstChar == '"') {
-          lexeme.append(firstChar);
-          i++;
-          while (line.charAt(i) != '"') {
-            lexeme.append(line.charAt(i));
-            i++;
-          }
-          lexeme.append(line.charAt(i));
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.string,
-                  currLine));
+        break;
+      case 6:
+        if (first == 'm'){
+          return matches(chars, start, TokenKind.METHOD);
         }
-        else if (firstChar == '\''){
-          lexeme.append(firstChar);
-          i++;
-          while (line.charAt(i) != '\''){
-            lexeme.append(line.charAt(i));
-            i++;
-          }
-          lexeme.append(line.charAt(i));
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.character,
-           currLine));
+        if (first == 's'){
+          return matches(chars, start, TokenKind.STATIC);
         }
-        else if (Character.isDigit(firstChar)){
-          while (i < line.length() && (Character.isDigit(line.charAt(i)))){
-            lexeme.append(line.charAt(i));
-            i++;
-          }
-          i--; //Decrement position so we dont consume next token by accident
-          tokens.add(new Token(lexeme.toString(), Token.TokenTypes.num, currLine));
+        if (first == 'r'){
+          return matches(chars, start, TokenKind.RETURN);
         }
-        else if (firstChar == '\t'){
-          // Skips over the tab character
+        break;
+      case 7:
+        if (first == 'b'){
+          return matches(chars, start, TokenKind.BOOLEAN);
         }
-        else if (!(Character.isSpaceChar(firstChar))){
-          throw new LexerException("Unexpected symbol on line " + currLine +
-          ": '" + firstChar + "'. Symbol is not recognised.");
+        break;
+      case 8:
+        if (first == 'f'){
+          return matches(chars, start, TokenKind.FUNCTION);
         }
-        lexeme.delete(0, lexeme.length()); //Empty the string for the lexeme
-        i++;
+        break;
+      case 11:
+        if (first == 'c'){
+          return matches(chars, start, TokenKind.CONSTRUCTOR);
+        }
+        break;
+    }
+    return TokenKind.IDENTIFIER;
+  }
+
+  /**
+   * Compares a range of characters, starting at the given position, with a
+   * reserved word of the same length.
+   * @param chars the buffer holding the characters
+   * @param start the position of the first character to compare
+   * @param kind the kind of the reserved word
+   * @return kind if the characters match, otherwise IDENTIFIER
+   */
+  private static int matches(char[] chars, int start, int kind) {
+    String word = TokenKind.lexeme(kind);
+    for (int i = 1 ; i < word.length() ; ++i){
+      if (chars[start + i] != word.charAt(i)){
+        return TokenKind.IDENTIFIER;
       }
     }
+    return kind;
   }
 }
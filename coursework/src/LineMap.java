@@ -0,0 +1,96 @@
+import java.util.Arrays;
+
+/**
+ * A table of the offsets at which each line of a source file starts. The
+ * lexer appends to it as it passes over line breaks, so the current line
+ * number is always just the number of lines seen so far, and the line or
+ * column of any earlier offset can be found by binary search. A LineMap
+ * may also begin part way through a file, in which case it only covers the
+ * lines from that point onwards.
+ *
+ * @author Adam Turner
+ */
+public class LineMap {
+
+  private int[] starts;
+  private int count;
+  private int firstLine;
+
+  /**
+   * Creates a new LineMap holding only the first line, which starts at
+   * offset 0
+   */
+  public LineMap(){
+    this(1, 0);
+  }
+
+  /**
+   * Creates a new LineMap that begins at the given line
+   * @param line the number of the first line covered by the map
+   * @param offset the offset at which that line starts
+   */
+  public LineMap(int line, int offset){
+    starts = new int[64];
+    starts[0] = offset;
+    count = 1;
+    firstLine = line;
+  }
+
+  /**
+   * Records the start of a new line
+   * @param offset the offset of the first character after the line break
+   */
+  public void addLine(int offset){
+    if (count == starts.length){
+      starts = Arrays.copyOf(starts, count * 2);
+    }
+    starts[count++] = offset;
+  }
+
+  /**
+   * Returns the line number of the last line recorded, which for a map
+   * covering the whole file is also the number of lines recorded
+   * @return the last line number
+   */
+  public int getLineCount(){
+    return firstLine + count - 1;
+  }
+
+  /**
+   * Returns the offset of the first character of the given line
+   * @param line a line number, starting from 1
+   * @return the offset of the start of the line
+   */
+  public int getLineStart(int line){
+    return starts[line - firstLine];
+  }
+
+  /**
+   * Finds the line that contains the given offset
+   * @param offset a position in the source
+   * @return the line number, starting from 1
+   */
+  public int lineOf(int offset){
+    int low = 0;
+    int high = count - 1;
+    while (low < high){
+      int mid = (low + high + 1) >>> 1;
+      if (starts[mid] <= offset){
+        low = mid;
+      }
+      else {
+        high = mid - 1;
+      }
+    }
+    return low + firstLine;
+  }
+
+  /**
+   * Finds the column of the given offset within its line
+   * @param offset a position in the source
+   * @return the column number, starting from 1
+   */
+  public int columnOf(int offset){
+    return offset - getLineStart(lineOf(offset)) + 1;
+  }
+}
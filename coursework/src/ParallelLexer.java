@@ -0,0 +1,272 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tokenizes very large source files using several cores.
+ *
+ * The source is cut into chunks that each end just after a line feed, and
+ * every chunk is lexed speculatively on the fork/join pool as though it
+ * began between two tokens, with its lines numbered from 1. Since string
+ * and character literals must be closed on the line they start, the only
+ * way that guess can be wrong is for the chunk to begin inside a block
+ * comment. The chunks are then stitched together in order: line numbers are
+ * shifted by the number of lines in the chunks before, and any chunk that
+ * starts inside a comment (or whose scan failed) is lexed again in its true
+ * state, so the result, including any error, is exactly what a single
+ * Lexer would have produced. Stitching stops at the first error, keeping
+ * the tokens before it, so the error can be held back until the parser
+ * reaches it just as a Lexer buffering its tokens would.
+ *
+ * @author Adam Turner
+ */
+public class ParallelLexer {
+
+  /** Sources of at least this many characters are lexed in parallel */
+  public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+  /** The number of characters each chunk holds, before being extended to
+   * the end of its last line */
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  /**
+   * Decides whether a source is large enough, and the machine has enough
+   * cores, for splitting it to pay for the cost of stitching it back
+   * together
+   * @param length the number of characters in the source
+   * @return true if the source should be lexed in parallel
+   */
+  public static boolean shouldSplit(int length){
+    return length >= PARALLEL_THRESHOLD &&
+            ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
+
+  /**
+   * Scans all of the given source into a token buffer
+   * @param source the buffer holding the source text
+   * @param length the number of characters of source text in the buffer
+   * @param lines an empty line map, which is filled with the start of every
+   * line in the source
+   * @return a buffer holding every token in the source
+   */
+  public static TokenBuffer tokenize(char[] source, int length, LineMap lines){
+    return tokenize(source, length, lines, CHUNK_SIZE);
+  }
+
+  /**
+   * Scans all of the given source into a token buffer, using chunks of the
+   * given size
+   * @param source the buffer holding the source text
+   * @param length the number of characters of source text in the buffer
+   * @param lines an empty line map, which is filled with the start of every
+   * line in the source
+   * @param chunkSize the minimum number of characters in each chunk
+   * @return a buffer holding every token in the source
+   */
+  static TokenBuffer tokenize(char[] source, int length, LineMap lines,
+                              int chunkSize){
+    Result result = bufferTokens(source, length, lines, chunkSize);
+    if (result.getError() != null){
+      throw result.getError();
+    }
+    return result.getTokens();
+  }
+
+  /**
+   * Scans the given source into a token buffer, as tokenize() does, but
+   * returns the first lexical error along with the tokens before it rather
+   * than throwing it
+   * @param source the buffer holding the source text
+   * @param length the number of characters of source text in the buffer
+   * @param lines an empty line map, which is filled with the start of every
+   * line up to any error
+   * @return the tokens, and the error if there was one
+   */
+  static Result bufferTokens(char[] source, int length, LineMap lines){
+    return bufferTokens(source, length, lines, CHUNK_SIZE);
+  }
+
+  private static Result bufferTokens(char[] source, int length,
+                                     LineMap lines, int chunkSize){
+    int[] bounds = splitAtLines(source, length, chunkSize);
+    Chunk[] chunks = new Chunk[bounds.length - 1];
+    ForkJoinPool.commonPool().invoke(new LexTask(source, bounds, chunks, 0,
+            chunks.length));
+
+    // Jack averages roughly one token for every six characters of source
+    TokenBuffer tokens = new TokenBuffer(source, length, length / 6 + 16);
+    int line = 1;
+    boolean inComment = false;
+    for (int i = 0 ; i < chunks.length ; ++i){
+      Chunk chunk = chunks[i];
+      if (chunk == null || inComment){
+        //The speculative scan either failed or began in the wrong state, so
+        // scan the chunk again from its real line
+        chunk = lexChunk(source, bounds[i], bounds[i + 1], line, inComment);
+      }
+
+      tokens.addShifted(chunk.tokens, 0, chunk.tokens.size(), 0,
+              line - chunk.firstLine);
+
+      //The first line of the chunk was already recorded as the last line of
+      // the one before
+      int lastLine = chunk.lines.getLineCount();
+      for (int l = chunk.firstLine + 1 ; l <= lastLine ; ++l){
+        lines.addLine(chunk.lines.getLineStart(l));
+      }
+      line += lastLine - chunk.firstLine;
+      inComment = chunk.endsInComment;
+
+      if (chunk.error != null){
+        return new Result(tokens, chunk.error);
+      }
+    }
+
+    return new Result(tokens, null);
+  }
+
+  /**
+   * Finds the boundaries of the chunks, each of which is at least chunkSize
+   * characters long (apart from the last) and ends just after a line feed.
+   * @param source the buffer holding the source text
+   * @param length the number of characters of source text in the buffer
+   * @param chunkSize the minimum number of characters in each chunk
+   * @return the start of every chunk followed by the end of the last one
+   */
+  private static int[] splitAtLines(char[] source, int length, int chunkSize){
+    int[] bounds = new int[length / chunkSize + 2];
+    int count = 1;
+    int cut = chunkSize;
+
+    while (cut < length){
+      while (cut < length && source[cut - 1] != '\n'){
+        cut++;
+      }
+      if (cut == length){
+        break;
+      }
+      bounds[count++] = cut;
+      cut += chunkSize;
+    }
+
+    bounds[count++] = length;
+    return Arrays.copyOf(bounds, count);
+  }
+
+  /**
+   * Scans every token in one chunk of the source
+   * @param source the buffer holding the source text
+   * @param start the position of the first character of the chunk
+   * @param end the position just after the last character of the chunk
+   * @param line the line number to give the first line of the chunk
+   * @param inComment whether the chunk starts inside a block comment
+   * @return the tokens and lines of the chunk, up to any error
+   */
+  private static Chunk lexChunk(char[] source, int start, int end, int line,
+                                boolean inComment){
+    Lexer lexer = new Lexer(source, end, start, line, start);
+    lexer.setScanner(SwarScanner.create(source, start, end));
+    if (inComment){
+      lexer.resumeInComment();
+    }
+
+    TokenBuffer tokens = new TokenBuffer(source, end, (end - start) / 6 + 16);
+    LexerException error = null;
+    try {
+      while (lexer.scanInto(tokens)){
+        // Keep scanning until the chunk runs out
+      }
+    }
+    catch (LexerException e){
+      error = e;
+    }
+
+    return new Chunk(tokens, lexer.getLineMap(), line, lexer.endsInComment(),
+            error);
+  }
+
+  /**
+   * The tokens of a whole source, up to the first lexical error
+   */
+  static class Result {
+    private final TokenBuffer tokens;
+    private final LexerException error;
+
+    private Result(TokenBuffer tokens, LexerException error){
+      this.tokens = tokens;
+      this.error = error;
+    }
+
+    /**
+     * Returns the tokens before any error
+     * @return tokens
+     */
+    TokenBuffer getTokens(){
+      return tokens;
+    }
+
+    /**
+     * Returns the first lexical error in the source
+     * @return error, or null if there was none
+     */
+    LexerException getError(){
+      return error;
+    }
+  }
+
+  /**
+   * The result of scanning a single chunk
+   */
+  private static class Chunk {
+    private final TokenBuffer tokens;
+    private final LineMap lines;
+    private final int firstLine;
+    private final boolean endsInComment;
+    private final LexerException error;
+
+    private Chunk(TokenBuffer tokens, LineMap lines, int firstLine,
+                  boolean endsInComment, LexerException error){
+      this.tokens = tokens;
+      this.lines = lines;
+      this.firstLine = firstLine;
+      this.endsInComment = endsInComment;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Speculatively scans a range of chunks, splitting the range in half until
+   * each task holds a single chunk. A chunk whose scan fails is left null.
+   */
+  private static class LexTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final char[] source;
+    private final int[] bounds;
+    private final Chunk[] chunks;
+    private final int from;
+    private final int to;
+
+    private LexTask(char[] source, int[] bounds, Chunk[] chunks, int from,
+                    int to){
+      this.source = source;
+      this.bounds = bounds;
+      this.chunks = chunks;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute(){
+      if (to - from == 1){
+        Chunk chunk = lexChunk(source, bounds[from], bounds[to], 1, false);
+        chunks[from] = chunk.error == null ? chunk : null;
+        return;
+      }
+
+      int mid = (from + to) >>> 1;
+      invokeAll(new LexTask(source, bounds, chunks, from, mid),
+              new LexTask(source, bounds, chunks, mid, to));
+    }
+  }
+}
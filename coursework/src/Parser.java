@@ -1,7 +1,11 @@
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * A class that takes tokens from an input stream and checks they are valid
@@ -10,97 +14,132 @@ import java.util.Scanner;
  */
 public class Parser {
 
+  /** Whether a parser lets go of its source text, tokens and the syntax
+   * trees of subroutine bodies once every body has been compiled. It does
+   * if the jack.source system property is set to "release". The lexer
+   * cannot be used after this. */
+  private static final boolean RELEASE_SOURCE =
+          "release".equals(System.getProperty("jack.source", "keep"));
+
   private Lexer lexer;
-  private List<SymbolTable> symbolTables;
-  private int currSymbolTable;
+  private Deque<SymbolTable> scopes;
+  private Deque<SymbolTable> freeScopes;
+  private int scopesCreated;
   private String className;
+  private int classType;
   private String currScope;
-  private String operandType;
   private String identifierOperand = null;
-  private int numLocalVars;
-  private boolean isFunctionWritten;
-  private String returnType;
-  private List<String> vmCode;
+  private int returnType;
+  private Ast ast;
+  private VmWriter output;
+  private TokenBuffer tokens;
+  private List<PendingBody> bodies;
+  private RuntimeException headerError;
 
 
   /**
    * Declares a new Parser object that reads input from a file through a
    * parser before checking the grammar of the source code
    * @param file The JACK source code file
-   * @throws FileNotFoundException Thrown if the given source file does not
-   * exist
+   * @throws IOException Thrown if the given source file does not exist or
+   * cannot be read
    */
-  public Parser(String file) throws FileNotFoundException{
-    lexer = new Lexer();
-    vmCode = new ArrayList<>();
-
-    symbolTables = new ArrayList<>();
-    symbolTables.add(new SymbolTable("global")); // Initialise global symbol
-    // table
-    currSymbolTable = 0; // Set current symbol table as global symbol table
-
-    initialiseGlobalTable();
+  public Parser(String file) throws IOException{
+    this();
 
     lexer.parseData(file);
-    parse();
-
 
     int fileExtensionIndex = file.lastIndexOf(".");
     String filename = file.substring(0, fileExtensionIndex);
 
     try {
-      writeCode(filename);
+      output = new VmWriter(filename + ".vm");
     }
     catch (IOException e){
       System.out.println("Error. Could not open VM file.");
       e.printStackTrace();
     }
-  }
 
-  /**
-   * Initialises the global symbol table with the JACK libraries
-   * @throws FileNotFoundException thrown if the file containing all the JACK
-   * library declarations is missing
-   */
-  private void initialiseGlobalTable() throws FileNotFoundException{
-    File libs = new File("libs.txt");
-    Scanner input = new Scanner(libs);
-
-    while(input.hasNextLine()){
-      String line = input.nextLine();
-      String[] entry = line.split(",");
-      if (entry[3].equals("null")){
-        symbolTables.get(0).insert(entry[0], entry[1], entry[2], null);
+    //The code of each subroutine is written out as soon as it has been
+    // compiled, and the VM file only replaced if the whole class compiles
+    try {
+      parse();
+    }
+    catch (RuntimeException e){
+      if (output != null){
+        output.abort();
       }
-      else {
-        symbolTables.get(0).insert(entry[0], entry[1], entry[2], entry[3]);
+      throw e;
+    }
+
+    if (output != null){
+      try {
+        output.close();
+      }
+      catch (IOException e){
+        System.out.println("Error. Could not write VM file.");
+        e.printStackTrace();
       }
     }
   }
 
   /**
-   * Adds the generated VM code to an array list
-   * @param code the line of VM code to be added
+   * Declares a new Parser object with the JACK libraries loaded but no input
+   * @throws IOException thrown if the file containing all the JACK library
+   * declarations is missing or cannot be read
    */
-  private void storeCode(String code){
-    vmCode.add(code);
+  private Parser() throws IOException{
+    lexer = new Lexer();
+    ast = new Ast();
+    bodies = new ArrayList<>();
+
+    // Initialise the global symbol table on top of the JACK libraries, as
+    // the bottom of the scope stack
+    scopes = new ArrayDeque<>();
+    scopes.push(SymbolTable.library().overlay("global"));
+    freeScopes = new ArrayDeque<>();
   }
 
   /**
-   * Writes the VM code contained within the vmCode array to a VM file
-   * @param filename The name of the VM file being written to
-   * @throws IOException thrown in the event that the VM file cannot be
-   * created or accessed
+   * Reads only the declarations of a class from a file: its class variables
+   * and the signatures of its subroutines. Subroutine bodies are skipped,
+   * and can be parsed later with parseBody() or parseBodies(). No VM code is
+   * written.
+   * @param file The JACK source code file
+   * @return a parser holding the symbol tables of the class
+   * @throws IOException Thrown if the given source file does not exist or
+   * cannot be read
    */
-  private void writeCode(String filename) throws IOException {
-    PrintWriter vmFile = new PrintWriter(new FileWriter(new File(filename +
-            ".vm")));
+  public static Parser readHeaders(String file) throws IOException{
+    Parser parser = new Parser();
+    parser.lexer.parseData(file);
+    parser.parseHeaders();
+    if (parser.headerError != null){
+      throw parser.headerError;
+    }
+    return parser;
+  }
 
-    for (String line : vmCode){
-      vmFile.println(line);
+  /**
+   * Writes the VM code of a subroutine to the VM file, if one is being
+   * written. If the code cannot be written the VM file is abandoned, and is
+   * left as it was.
+   * @param code the VM code
+   */
+  private void writeCode(VmCode code){
+    if (output == null){
+      return;
     }
 
-    vmFile.close();
+    try {
+      output.write(code);
+    }
+    catch (IOException e){
+      System.out.println("Error. Could not write VM file.");
+      e.printStackTrace();
+      output.abort();
+      output = null;
+    }
   }
 
 
@@ -113,15 +152,233 @@ public class Parser {
   }
 
   /**
-   * Begins the parsing process from the start variable of the JACK grammar
+   * Returns the syntax tree built by the parser
+   * @return ast
+   */
+  public Ast getAst() {
+    return ast;
+  }
+
+  /**
+   * Returns the symbol tables of the scopes that are open, the first of
+   * which holds the libraries and the members of the class. Subroutine
+   * scopes are closed once their bodies have been skipped, so after parsing
+   * this is only the global table.
+   * @return the open symbol tables, outermost first
+   */
+  public List<SymbolTable> getSymbolTables() {
+    List<SymbolTable> open = new ArrayList<>();
+    for (Iterator<SymbolTable> i = scopes.descendingIterator() ; i.hasNext() ; ){
+      open.add(i.next());
+    }
+    return open;
+  }
+
+  /**
+   * Returns the number of symbol tables this parser has allocated for
+   * subroutine scopes. A table is recycled as soon as the signature or body
+   * it holds has been read, so this is the number of bodies that were being
+   * compiled at once, however many subroutines the class has.
+   * @return scopesCreated
+   */
+  public int getScopesCreated() {
+    return scopesCreated;
+  }
+
+  /**
+   * Begins the parsing process from the start variable of the JACK grammar,
+   * building the syntax tree of the class
    */
   public void parse(){
-    classDeclare();
+    parseHeaders();
+    parseBodies();
+  }
+
+  /**
+   * Parses the class declaration, class variables and subroutine
+   * signatures, skipping over the body of every subroutine by matching its
+   * braces. The position of each body is recorded so it can be parsed later.
+   *
+   * An error here is not thrown straight away, because a syntax error in an
+   * earlier body can throw the brace matching off and cause it. The error is
+   * kept until the bodies before it have been parsed, so that errors are
+   * always reported in source order.
+   */
+  private void parseHeaders(){
+    tokens = lexer.bufferTokens();
+    try {
+      classDeclare();
+    }
+    catch (RuntimeException e){
+      headerError = e;
+    }
+  }
+
+  /**
+   * Compiles the body of every subroutine that has not been compiled yet.
+   * When more than one core is available the bodies are compiled in
+   * parallel, a few at a time ahead of the one being written out. The
+   * results are still taken in source order, so the VM code and the first
+   * error reported are the same as if the bodies had been compiled one
+   * after another.
+   */
+  public void parseBodies(){
+    List<PendingBody> pending = new ArrayList<>();
+    for (PendingBody body : bodies){
+      if (!body.compiled){
+        pending.add(body);
+      }
+    }
+
+    if (pending.size() > 1 && ForkJoinPool.getCommonPoolParallelism() > 1){
+      //Every body is compiled as though the one before it left no
+      // identifier operand behind, and compiled again in the rare case that
+      // a type check saw this and it was wrong. Only a window of bodies is
+      // started ahead of the one being written, so the compilers and tables
+      // held at once do not grow with the size of the class.
+      int window = 2 * ForkJoinPool.getCommonPoolParallelism();
+      Deque<CompileTask> running = new ArrayDeque<>();
+      int started = 0;
+      for (int i = 0 ; i < pending.size() ; ++i){
+        for ( ; started < pending.size() && started - i < window ; ++started){
+          CompileTask task = new CompileTask(compiler(pending.get(started),
+                  null));
+          task.fork();
+          running.add(task);
+        }
+
+        SubroutineCompiler compiler = running.poll().join();
+        if (compiler.usedPreviousState() && identifierOperand != null){
+          freeScopes.push(compiler.getLocals());
+          compiler = compiler(pending.get(i), identifierOperand);
+          compiler.compile();
+        }
+        finish(pending.get(i), compiler);
+      }
+    }
+    else {
+      for (PendingBody body : pending){
+        SubroutineCompiler compiler = compiler(body, identifierOperand);
+        compiler.compile();
+        finish(body, compiler);
+      }
+    }
+
+    //Every body has been compiled, so nothing is left to use the spare
+    // tables, or the source and trees if they are not being kept
+    freeScopes.clear();
+    if (RELEASE_SOURCE){
+      lexer.release();
+      tokens = null;
+      bodies.clear();
+    }
+
+    if (headerError != null){
+      throw headerError;
+    }
+  }
+
+  /**
+   * Compiles the body of a single subroutine, if it has not been compiled
+   * already
+   * @param name the name of the subroutine
+   * @return the syntax tree of the body, or null if there is no subroutine
+   * with that name or its tree has been released
+   */
+  public Ast parseBody(String name){
+    for (PendingBody body : bodies){
+      if (body.scope.equals(name)){
+        if (!body.compiled){
+          SubroutineCompiler compiler = compiler(body, identifierOperand);
+          compiler.compile();
+          finish(body, compiler);
+        }
+        return body.ast;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Creates a compiler for a recorded subroutine body, reading from a
+   * lexer of its own. Its scope is a recycled table holding the arguments
+   * of the body, to which it adds the local variables.
+   * @param body the body to be compiled
+   * @param previousOperand the last identifier operand of the previous body
+   * @return the compiler
+   */
+  private SubroutineCompiler compiler(PendingBody body, String previousOperand){
+    SymbolTable locals = obtainScope();
+    openArguments(locals, body.scope, body.visible);
+    for (int i = 0 ; i < body.argumentNames.length ; ++i){
+      locals.insert(body.argumentNames[i], body.argumentTypes[i],
+              SymbolKind.ARGUMENT, classType);
+    }
+    return new SubroutineCompiler(lexer.replayFrom(body.first), locals,
+            classType, body.scope, body.returnType, previousOperand);
+  }
+
+  /**
+   * Readies a table for the scope of a subroutine, which sees the first
+   * symbols of the global table, and adds the 'this' argument that is
+   * present in every JACK method/function
+   * @param arguments the table
+   * @param scope the name of the subroutine
+   * @param visible the number of global symbols the subroutine can see
+   */
+  private void openArguments(SymbolTable arguments, String scope, int visible){
+    arguments.reset(scope, scopes.peekLast(), visible);
+    arguments.insert("this", classType, SymbolKind.ARGUMENT, classType);
+  }
+
+  /**
+   * Returns a symbol table for a new scope, recycling one that is no longer
+   * in use if there is one. The table must be reset before it is used.
+   * @return the table
+   */
+  private SymbolTable obtainScope(){
+    SymbolTable table = freeScopes.poll();
+    if (table == null){
+      table = new SymbolTable(null);
+      scopesCreated++;
+    }
+    return table;
   }
 
-  private void classDeclare(){
+  /**
+   * Takes the results of a compiled body, throwing its error if it has one
+   * @param body the body that was compiled
+   * @param compiler the compiler of the body
+   */
+  private void finish(PendingBody body, SubroutineCompiler compiler){
+    body.compiled = true;
+    body.ast = RELEASE_SOURCE ? null : compiler.getAst();
+    body.argumentNames = null;
+    body.argumentTypes = null;
+    //A body that sets no operand of its own passes on the one before it,
+    // which a compiler started in parallel was not given
+    if (compiler.isIdentifierOperandSet()){
+      identifierOperand = compiler.getIdentifierOperand();
+    }
+
+    //Only the tree of the body is kept, and its table is recycled for the
+    // bodies after it
+    freeScopes.push(compiler.getLocals());
+
+    if (compiler.getError() != null){
+      for (String message : compiler.getMessages()){
+        System.out.println(message);
+      }
+      throw compiler.getError();
+    }
+
+    writeCode(compiler.getVmCode());
+  }
+
+  private int classDeclare(){
     Token t = lexer.getNextToken();
-    if (t.getLexeme().equals("class")){
+    int classNode;
+    if (t.getKind() == TokenKind.CLASS){
 
     }
     else {
@@ -131,13 +388,15 @@ public class Parser {
 
     t = lexer.getNextToken();
     if (t.getType() == Token.TokenTypes.id){
-      if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
+      if (scopes.peek().lookUp(t.getLexeme())){
         throw new ParserException("Error on line " + t.getLineNum() + ". " +
                 "Class " + t.getLexeme() + " is already defined.");
       }
       className = t.getLexeme();
-      symbolTables.get(currSymbolTable).insert(t.getLexeme(), "None",
-              "class", null);
+      classType = TypeRegistry.id(className);
+      scopes.peek().insert(t.getLexeme(),
+              TypeRegistry.CLASS, SymbolKind.CLASS, TypeRegistry.NONE);
+      classNode = ast.add(Ast.CLASS, ast.addString(className), 0);
     }
     else {
       throw new ParserException("Error on line " + t.getLineNum() + ". " +
@@ -145,7 +404,7 @@ public class Parser {
     }
 
     t = lexer.getNextToken();
-    if (t.getLexeme().equals("{")){
+    if (t.getKind() == TokenKind.LEFT_BRACE){
 
     }
     else {
@@ -154,8 +413,8 @@ public class Parser {
     }
 
     Token next = lexer.peekNextToken();
-    while (!next.getLexeme().equals("}")){
-      memberDeclare();
+    while (next.getKind() != TokenKind.RIGHT_BRACE){
+      memberDeclare(classNode);
       next = lexer.peekNextToken();
     }
 
@@ -168,58 +427,62 @@ public class Parser {
               "file, got nothing.");
     }
 
-    if (t.getLexeme().equals("}")){
+    if (t.getKind() == TokenKind.RIGHT_BRACE){
 
     }
     else {
       throw new ParserException("Error on line " + t.getLineNum() + ". " +
               "Expected '}', got" + t.getLexeme() + ".");
     }
+
+    return classNode;
   }
 
-  private void memberDeclare(){
+  private void memberDeclare(int classNode){
     Token t = lexer.peekNextToken();
-    if (t.getLexeme().equals("static") || t.getLexeme().equals("field")){
-      classVarDeclare();
-    }
-    else if (t.getLexeme().equals("constructor") || t.getLexeme().equals(
-            "function") || t.getLexeme().equals("method")){
-      subroutineDeclare();
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected member declaration, got " + t.getLexeme() + ".");
+    switch (t.getKind()){
+      case TokenKind.STATIC:
+      case TokenKind.FIELD:
+        classVarDeclare();
+        break;
+      case TokenKind.CONSTRUCTOR:
+      case TokenKind.FUNCTION:
+      case TokenKind.METHOD:
+        ast.append(classNode, subroutineDeclare());
+        break;
+      default:
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected member declaration, got " + t.getLexeme() + ".");
     }
   }
 
   private void classVarDeclare(){
     Token t = lexer.getNextToken();
-    String kind;
-    String type;
-    if (t.getLexeme().equals("static")){
-      type = type();
-      kind = "static";
-    }
-    else if (t.getLexeme().equals("field")){
-      type = type();
-      kind = "field";
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"static\" or \"field\", got " + t.getLexeme() + ".");
+    SymbolKind kind;
+    int type;
+    switch (t.getKind()){
+      case TokenKind.STATIC:
+        type = type(lexer);
+        kind = SymbolKind.STATIC;
+        break;
+      case TokenKind.FIELD:
+        type = type(lexer);
+        kind = SymbolKind.FIELD;
+        break;
+      default:
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected \"static\" or \"field\", got " + t.getLexeme() + ".");
     }
 
     t = lexer.getNextToken();
     if (t.getType() == Token.TokenTypes.id){
-      if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
-        if (symbolTables.get(currSymbolTable).checkDuplicate(t.getLexeme(),
-                className)) {
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Class Variable " + t.getLexeme() + " is already defined.");
-        }
+      if (scopes.peek().checkDuplicate(t.getLexeme(),
+              classType)){
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Class Variable " + t.getLexeme() + " is already defined.");
       }
-      symbolTables.get(currSymbolTable).insert(t.getLexeme(), type, kind,
-              className);
+      scopes.peek().insert(t.getLexeme(), type, kind,
+              classType);
     }
     else {
       throw new ParserException("Error on line " + t.getLineNum() + ". " +
@@ -227,20 +490,18 @@ public class Parser {
     }
 
     t = lexer.peekNextToken();
-    while (t.getLexeme().equals(",")){
+    while (t.getKind() == TokenKind.COMMA){
       lexer.getNextToken();
       t = lexer.getNextToken();
 
       if (t.getType() == Token.TokenTypes.id){
-        if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
-          if (symbolTables.get(currSymbolTable).checkDuplicate(t.getLexeme(),
-                  className)) {
-            throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                    "Class Variable " + t.getLexeme() + " is already defined.");
-          }
+        if (scopes.peek().checkDuplicate(t.getLexeme(),
+                classType)){
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Class Variable " + t.getLexeme() + " is already defined.");
         }
-        symbolTables.get(currSymbolTable).insert(t.getLexeme(), type, kind,
-                className);
+        scopes.peek().insert(t.getLexeme(), type, kind,
+                classType);
       }
       else {
         throw new ParserException("Error on line " + t.getLineNum() + ". " +
@@ -253,53 +514,57 @@ public class Parser {
 
   }
 
-  private String type(){
+  /**
+   * Reads a type, which is either one of the built in types or the name of
+   * a class
+   * @param lexer the lexer to read the type from
+   * @return the name of the type
+   */
+  static int type(Lexer lexer){
     Token t = lexer.getNextToken();
 
-    if (t.getLexeme().equals("int")){
-      return "int";
-    }
-    else if (t.getLexeme().equals("char")){
-      return "char";
-    }
-    else if (t.getLexeme().equals("boolean")){
-      return "boolean";
-    }
-    else if (t.getType() == Token.TokenTypes.id){
-      return t.getLexeme();
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected variable type, got " + t.getLexeme() + ". ");
+    switch (t.getKind()){
+      case TokenKind.INT:
+        return TypeRegistry.INT;
+      case TokenKind.CHAR:
+        return TypeRegistry.CHAR;
+      case TokenKind.BOOLEAN:
+        return TypeRegistry.BOOLEAN;
+      case TokenKind.IDENTIFIER:
+        return TypeRegistry.id(t.getLexeme());
+      default:
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected variable type, got " + t.getLexeme() + ". ");
     }
   }
 
-  private void subroutineDeclare(){
+  private int subroutineDeclare(){
     Token t = lexer.getNextToken();
-    String kind;
-    String type;
-    returnType = null;
-    if (t.getLexeme().equals("constructor")){
-      kind = "constructor";
-    }
-    else if (t.getLexeme().equals("function")){
-      kind = "function";
-    }
-    else if (t.getLexeme().equals("method")){
-      kind = "method";
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected function declaration, got " + t.getLexeme() + ".");
+    SymbolKind kind;
+    int type;
+    returnType = TypeRegistry.NONE;
+    switch (t.getKind()){
+      case TokenKind.CONSTRUCTOR:
+        kind = SymbolKind.CONSTRUCTOR;
+        break;
+      case TokenKind.FUNCTION:
+        kind = SymbolKind.FUNCTION;
+        break;
+      case TokenKind.METHOD:
+        kind = SymbolKind.METHOD;
+        break;
+      default:
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected function declaration, got " + t.getLexeme() + ".");
     }
 
     t = lexer.peekNextToken();
-    if (t.getLexeme().equals("void")){
+    if (t.getKind() == TokenKind.VOID){
       lexer.getNextToken();
-      type = "void";
+      type = TypeRegistry.VOID;
     }
     else if (t.getType() == Token.TokenTypes.keyword || t.getType() == Token.TokenTypes.id){
-      type = type();
+      type = type(lexer);
     }
     else {
       throw new ParserException("Error on line " + t.getLineNum() + ". " +
@@ -309,15 +574,13 @@ public class Parser {
     returnType = type;
     t = lexer.getNextToken();
     if (t.getType() == Token.TokenTypes.id){
-      if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
-        if (symbolTables.get(currSymbolTable).checkDuplicate(t.getLexeme(),
-                className)) {
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Function or method " + t.getLexeme() + " is already defined.");
-        }
+      if (scopes.peek().checkDuplicate(t.getLexeme(),
+              classType)){
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Function or method " + t.getLexeme() + " is already defined.");
       }
-      symbolTables.get(currSymbolTable).insert(t.getLexeme(), type, kind,
-              className);
+      scopes.peek().insert(t.getLexeme(), type, kind,
+              classType);
       currScope = t.getLexeme();
     }
     else {
@@ -325,16 +588,16 @@ public class Parser {
               "Expected identifier, got " + t.getLexeme() + ".");
     }
 
-    // Creates a new symbol table for the current function/method
-    currSymbolTable = SymbolTable.addTable(symbolTables, currScope);
-    // Adds the 'this' argument that is present in every JACK method/function
-    symbolTables.get(currSymbolTable).insert("this", className, "argument",
-            className);
+    // Opens a new scope for the current function/method, which sees the
+    // class symbols declared so far
+    SymbolTable arguments = obtainScope();
+    openArguments(arguments, currScope, scopes.peekLast().size());
+    scopes.push(arguments);
 
     t = lexer.getNextToken();
-    if (t.getLexeme().equals("(")){
+    if (t.getKind() == TokenKind.LEFT_PAREN){
       t = lexer.peekNextToken();
-      while (!(t.getLexeme().equals(")"))){
+      while (t.getKind() != TokenKind.RIGHT_PAREN){
         paramList();
         t = lexer.peekNextToken();
       }
@@ -345,29 +608,30 @@ public class Parser {
               "Expected \"(\", got " + t.getLexeme() + ".");
     }
 
-    subroutineBody();
+    int subroutine = ast.add(Ast.SUBROUTINE, ast.addString(currScope), 0);
+    skipBody(subroutine);
 
-    // Return to the global symbol table
-    currSymbolTable = 0;
+    // Return to the global symbol table, keeping only the signature until
+    // the body is compiled
+    freeScopes.push(scopes.pop());
+    return subroutine;
   }
 
   private void paramList(){
     Token t = lexer.peekNextToken();
-    String type;
+    int type;
     if (t.getType() == Token.TokenTypes.keyword || t.getType() == Token.TokenTypes.id){
-      type = type();
+      type = type(lexer);
 
       t = lexer.getNextToken();
       if (t.getType() == Token.TokenTypes.id){
-        if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
-          if (symbolTables.get(currSymbolTable).checkDuplicate(t.getLexeme(),
-                  className)) {
-            throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                    "Argument " + t.getLexeme() + " is already defined.");
-          }
+        if (scopes.peek().checkDuplicate(t.getLexeme(),
+                classType)){
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Argument " + t.getLexeme() + " is already defined.");
         }
-        symbolTables.get(currSymbolTable).insert(t.getLexeme(), type,
-                "argument", className);
+        scopes.peek().insert(t.getLexeme(), type,
+                SymbolKind.ARGUMENT, classType);
       }
       else {
         throw new ParserException("Error on line " + t.getLineNum() + ". " +
@@ -375,21 +639,19 @@ public class Parser {
       }
 
       t = lexer.peekNextToken();
-      while (t.getLexeme().equals(",")){
+      while (t.getKind() == TokenKind.COMMA){
         lexer.getNextToken();
-        type = type();
+        type = type(lexer);
 
         t = lexer.getNextToken();
         if (t.getType() == Token.TokenTypes.id){
-          if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
-            if (symbolTables.get(currSymbolTable).checkDuplicate(t.getLexeme(),
-                    className)) {
-              throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                      "Argument " + t.getLexeme() + " is already defined.");
-            }
+          if (scopes.peek().checkDuplicate(t.getLexeme(),
+                  classType)){
+            throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                    "Argument " + t.getLexeme() + " is already defined.");
           }
-          symbolTables.get(currSymbolTable).insert(t.getLexeme(), type,
-                  "argument", className);
+          scopes.peek().insert(t.getLexeme(), type,
+                  SymbolKind.ARGUMENT, classType);
         }
         else {
           throw new ParserException("Error on line " + t.getLineNum() + ". " +
@@ -401,9 +663,14 @@ public class Parser {
     }
   }
 
-  private void subroutineBody(){
+  /**
+   * Reads the opening brace of a subroutine body and records where the body
+   * starts, then skips to just after its closing brace
+   * @param subroutine the id of the subroutine node
+   */
+  private void skipBody(int subroutine){
     Token t = lexer.getNextToken();
-    if (t.getLexeme().equals("{")){
+    if (t.getKind() == TokenKind.LEFT_BRACE){
 
     }
     else {
@@ -411,825 +678,79 @@ public class Parser {
               "Expected \"{\", got " + t.getLexeme() + ".");
     }
 
-    numLocalVars = 0;
-    isFunctionWritten = false;
-    t = lexer.peekNextToken();
-    while (!(t.getLexeme().equals("}"))){
-      statement();
-      t = lexer.peekNextToken();
-    }
-    lexer.getNextToken();
-  }
-
-  private void statement(){
-    Token t = lexer.peekNextToken();
-
-    if (!(t.getLexeme().equals("var"))) {
-      if (!isFunctionWritten) {
-        storeCode("function " + currScope + " " + numLocalVars);
-        isFunctionWritten = true;
-      }
-    }
-
-    if (t.getLexeme().equals("var")){
-      varDeclareStatement();
-    }
-    else if (t.getLexeme().equals("let")){
-      letStatement();
-    }
-    else if (t.getLexeme().equals("if")){
-      ifStatement();
-    }
-    else if (t.getLexeme().equals("while")){
-      whileStatement();
-    }
-    else if (t.getLexeme().equals("do")){
-      doStatement();
-    }
-    else if (t.getLexeme().equals("return")){
-      returnStatement();
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected statement declaration, got " + t.getLexeme() + ".");
-    }
-  }
-
-  private void varDeclareStatement(){
-    Token t = lexer.getNextToken();
-    String type;
-    if (t.getLexeme().equals("var")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected var, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.peekNextToken();
-    if (t.getType() == Token.TokenTypes.keyword || t.getType() == Token.TokenTypes.id){
-      type = type();
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected type, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.getNextToken();
-    if (t.getType() == Token.TokenTypes.id){
-      if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
-        if (symbolTables.get(currSymbolTable).checkDuplicate(t.getLexeme(),
-                className)) {
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Local variable " + t.getLexeme() + " is already defined.");
-        }
-      }
-      symbolTables.get(currSymbolTable).insert(t.getLexeme(), type,
-              "var", className);
-      numLocalVars++;
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected identifier, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.peekNextToken();
-    while (t.getLexeme().equals(",")){
-      lexer.getNextToken();
+    int first = lexer.tokenIndex();
+    bodies.add(new PendingBody(subroutine, first, scopes.peek(), currScope,
+            returnType));
 
-      t = lexer.getNextToken();
-      if (t.getType() == Token.TokenTypes.id){
-        if (symbolTables.get(currSymbolTable).lookUp(t.getLexeme())){
-          if (symbolTables.get(currSymbolTable).checkDuplicate(t.getLexeme(),
-                  className)) {
-            throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                    "Local variable " + t.getLexeme() + " is already defined.");
-          }
-        }
-        symbolTables.get(currSymbolTable).insert(t.getLexeme(), type,
-                "var", className);
-        numLocalVars++;
+    //Without a matching brace the lexer is left at the end of the tokens,
+    // and the body reports the error when it is parsed
+    int depth = 1;
+    int i = first;
+    for ( ; i < tokens.size() ; ++i){
+      int kind = tokens.getKind(i);
+      if (kind == TokenKind.LEFT_BRACE){
+        depth++;
       }
-      else {
-        throw new ParserException("Error on line "+ t.getLineNum() + ". " +
-                "Expected identifier, got " + t.getLexeme() + ".");
+      else if (kind == TokenKind.RIGHT_BRACE && --depth == 0){
+        break;
       }
-
-      t = lexer.peekNextToken();
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals(";")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \";\", got " + t.getLexeme() + ".");
     }
+    lexer.seek(Math.min(i + 1, tokens.size()));
   }
 
-  private void letStatement(){
-    Token t = lexer.getNextToken();
-    Symbol lhs;
-    boolean isArray = false;
-    if (t.getLexeme().equals("let")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected let, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.getNextToken();
-    if (t.getType() == Token.TokenTypes.id){
-      if (!(symbolTables.get(currSymbolTable).lookUp(t.getLexeme()))){
-        if (!(symbolTables.get(0).lookUp(t.getLexeme())))
-        throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                "Local variable " + t.getLexeme() + " is not defined.");
-      }
-      lhs = symbolTables.get(currSymbolTable).getSymbol(t.getLexeme());
-      if (lhs == null){
-        lhs = symbolTables.get(0).getSymbol(t.getLexeme());
+  /**
+   * The body of a subroutine that was skipped by the header pass, along with
+   * what is needed to parse it later. The arguments are kept as the names
+   * and type ids of the declared parameters, not counting 'this', rather
+   * than as a symbol table.
+   */
+  private static class PendingBody {
+    private final int subroutine;
+    private final int first;
+    private final int visible;
+    private String[] argumentNames;
+    private int[] argumentTypes;
+    private final String scope;
+    private final int returnType;
+    private boolean compiled;
+    private Ast ast;
+
+    private PendingBody(int subroutine, int first, SymbolTable arguments,
+                        String scope, int returnType){
+      this.subroutine = subroutine;
+      this.first = first;
+      this.scope = scope;
+      this.returnType = returnType;
+      compiled = false;
+
+      visible = arguments.getVisibleInParent();
+      List<Symbol> symbols = arguments.getTable();
+      argumentNames = new String[symbols.size() - 1];
+      argumentTypes = new int[symbols.size() - 1];
+      for (int i = 1 ; i < symbols.size() ; ++i){
+        argumentNames[i - 1] = symbols.get(i).getSymbolName();
+        argumentTypes[i - 1] = symbols.get(i).getType();
       }
     }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected identifier, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.peekNextToken();
-    if (t.getLexeme().equals("[")){
-      isArray = true;
-
-      if (lhs.getKind().equals("var")){
-        storeCode("push local " + lhs.getOffset());
-      }
-      else if (lhs.getKind().equals("argument")){
-        storeCode("push argument " + lhs.getOffset());
-      }
-      else if (lhs.getKind().equals("field")){
-        storeCode("push static " + lhs.getOffset());
-      }
+  }
 
-      lexer.getNextToken();
-      t = lexer.peekNextToken();
-      while (!(t.getLexeme().equals("]"))){
-        expression();
-        if (identifierOperand != null){
-          Symbol s =
-                  symbolTables.get(currSymbolTable).getSymbol(identifierOperand);
-          if (!(s.getType().equals("int"))){
-            throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                    "Array indices must be an integer.");
-          }
-        }
-        else if (!(operandType.equals("int"))){
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Array indices must be integers.");
-        }
-        t = lexer.peekNextToken();
-      }
-      storeCode("add");
-      storeCode("pop pointer 1");
-      lexer.getNextToken();
-    }
+  /**
+   * Compiles a single subroutine body on the common pool, giving back its
+   * compiler once it is done
+   */
+  private static class CompileTask extends RecursiveTask<SubroutineCompiler> {
+    private static final long serialVersionUID = 1L;
 
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("=")){
+    private final SubroutineCompiler compiler;
 
+    private CompileTask(SubroutineCompiler compiler){
+      this.compiler = compiler;
     }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected =, got " + t.getLexeme() + ".");
-    }
-
-    identifierOperand = null;
-    expression();
-
-    //This section implements type checking for let statements
-    Symbol rhs;
-    if (identifierOperand != null){
-      rhs = symbolTables.get(currSymbolTable).getSymbol(identifierOperand);
-      if (rhs == null){
-        rhs = symbolTables.get(0).getSymbol(identifierOperand);
-      }
-
-      // Checks to see if the type of the local variable is a class (such as
-      // an array) that has already been defined in the symbol table
-      if (symbolTables.get(0).lookUp(lhs.getType())){
-
-      }
-      else if ((rhs != null) && (rhs.getKind().equals("class"))){
 
-      }
-      else if ((rhs != null) && !(lhs.getType().equals(rhs.getType()))){
-        System.out.println(lhs.toString());
-        System.out.println(rhs.toString());
-        throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                "Mismatched types for " + lhs.getType() + " and " + rhs.getType());
-      }
-      else if (rhs == null) {
-        if (!(lhs.getType().equals(identifierOperand))){
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Mismatched types for " + lhs.getType() + " and " + identifierOperand);
-        }
-      }
-
-    }
-    else {
-      if (symbolTables.get(0).lookUp(lhs.getType())){
-
-      }
-      else if (!(lhs.getType().equals(operandType))) {
-        throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                "Mismatched types for " + lhs.getType() + " and " + operandType);
-      }
-    }
-
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals(";")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected ; , got " + t.getLexeme() + ".");
-    }
-
-    if (isArray){
-      storeCode("pop that 0");
-    }
-    else {
-      if (lhs.getKind().equals("var")) {
-        storeCode("pop local " + lhs.getOffset());
-      } else if (lhs.getKind().equals("field")) {
-        storeCode("pop static " + lhs.getOffset());
-      } else if (lhs.getKind().equals("argument")) {
-        storeCode("pop argument " + lhs.getOffset());
-      }
-    }
-  }
-
-  private void ifStatement(){
-    Token t = lexer.getNextToken();
-    if (t.getLexeme().equals("if")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected if, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("(")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"(\", got " + t.getLexeme() + ".");
-    }
-
-    expression();
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals(")")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \")\", got" + t.getLexeme() + ".");
-    }
-
-    storeCode("if-goto jump");
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("{")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"{\", got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.peekNextToken();
-    while (!(t.getLexeme().equals("}"))){
-      statement();
-      t = lexer.peekNextToken();
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("}")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"}\", got " + t.getLexeme() + ".");
-    }
-
-    storeCode("label jump");
-    t = lexer.peekNextToken();
-    if (t.getLexeme().equals("else")){
-      lexer.getNextToken();
-
-      t = lexer.getNextToken();
-      if (t.getLexeme().equals("{")){
-
-      }
-      else {
-        throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                "Expected \"{\", got" + t.getLexeme() + ".");
-      }
-
-      t = lexer.peekNextToken();
-      while (!(t.getLexeme().equals("}"))){
-        statement();
-        t = lexer.peekNextToken();
-      }
-
-      t = lexer.getNextToken();
-      if (t.getLexeme().equals("}")){
-
-      }
-      else {
-        throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                "Expected \"}\", got " + t.getLexeme() + ".");
-      }
-    }
-
-  }
-
-  private void whileStatement(){
-    Token t = lexer.getNextToken();
-    if (t.getLexeme().equals("while")){
-      storeCode("label loop");
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected while, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("(")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"(\", got " + t.getLexeme() + ".");
-    }
-
-    expression();
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals(")")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \")\", got " + t.getLexeme() + ".");
-    }
-
-    storeCode("if-goto end");
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("{")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"{\", got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.peekNextToken();
-    while (!(t.getLexeme().equals("}"))){
-      statement();
-      t = lexer.peekNextToken();
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("}")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"}\", got " + t.getLexeme() + ".");
-    }
-
-    storeCode("goto loop");
-    storeCode("label end");
-  }
-
-  private void doStatement(){
-    Token t = lexer.getNextToken();
-    if (t.getLexeme().equals("do")){
-      subroutineCall();
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected do, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals(";")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \";\", got " + t.getLexeme() + ".");
-    }
-  }
-
-  private void subroutineCall(){
-    Token t = lexer.getNextToken();
-    String subroutine = null;
-    int args = 0;
-    if (t.getType() == Token.TokenTypes.id){
-      subroutine = t.getLexeme();
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected identifier, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.peekNextToken();
-    if (t.getLexeme().equals(".")){
-      lexer.getNextToken();
-
-      t = lexer.getNextToken();
-      if (t.getType() == Token.TokenTypes.id){
-        subroutine = subroutine + "." + t.getLexeme();
-      }
-      else {
-        throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                "Expected identifier, got " + t.getLexeme() + ".");
-      }
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals("(")){
-      args = expressionList();
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \"(\", got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals(")")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \")\", got " + t.getLexeme() + ".");
-    }
-
-    storeCode("call " + subroutine + " " + args);
-  }
-
-  private int expressionList(){
-    Token t = lexer.peekNextToken();
-    int args = 0;
-    if (t.getType() == Token.TokenTypes.num || t.getType() == Token.TokenTypes.id ||
-        t.getLexeme().equals("(") || t.getType() == Token.TokenTypes.string ||
-        t.getLexeme().equals("true") || t.getLexeme().equals("false") || t.getType() == Token.TokenTypes.nullReference ||
-        t.getLexeme().equals("this") || t.getLexeme().equals("-") || t.getLexeme().equals("~")) {
-
-      expression();
-      args++;
-
-      t = lexer.peekNextToken();
-      while (t.getLexeme().equals(",")) {
-        lexer.getNextToken();
-        expression();
-        args++;
-        t = lexer.peekNextToken();
-      }
-    }
-
-    return args;
-  }
-
-  private void returnStatement(){
-    Token t = lexer.getNextToken();
-    if (t.getLexeme().equals("return")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected return, got " + t.getLexeme() + ".");
-    }
-
-    t = lexer.peekNextToken();
-    if (t.getLexeme().equals("-") || t.getLexeme().equals("~") || t.getLexeme().equals("this") ||
-            t.getType() == Token.TokenTypes.num || t.getType() == Token.TokenTypes.id ||
-            t.getType() == Token.TokenTypes.string || t.getType() == Token.TokenTypes.nullReference ||
-            t.getType() == Token.TokenTypes.bool) {
-
-      identifierOperand = null;
-      expression();
-
-      //Check whether the value being returned matches the return type of the
-      // subroutine
-      if (identifierOperand != null){
-        //Lookup the identifier in the local symbol table first before
-        // checking whether it exists in the global scope
-        Symbol value =
-                symbolTables.get(currSymbolTable).getSymbol(identifierOperand);
-        if (value == null){
-          value = symbolTables.get(0).getSymbol(identifierOperand);
-        }
-
-        if (value != null){
-          if (value.getType().equals(returnType)){
-
-          }
-          else {
-            throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                    "Return type should be " + returnType + ", not " + identifierOperand + ".");
-          }
-        }
-        else{
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Variable " + identifierOperand + " is not defined.");
-        }
-      }
-      else {
-        if (!(returnType.equals(operandType))){
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Return type should be " + returnType + ", not " + operandType + ".");
-        }
-      }
-    }
-    else {
-      storeCode("push constant 0");
-    }
-
-    t = lexer.getNextToken();
-    if (t.getLexeme().equals(";")){
-
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected \";\", got " + t.getLexeme() + ".");
-    }
-
-    //Checks to see if there is any unreachable code after a return statement
-    // by taking advantage of the fact the next token should be a "}"
-    t = lexer.peekNextToken();
-    if (t != null){
-      if (!(t.getLexeme().equals("}"))){
-        throw new ParserException("Error on line " + t.getLineNum() + ". Code" +
-                " after return statement is unreachable.");
-      }
-    }
-
-    storeCode("return");
-  }
-
-  private void expression(){
-    relationalExpression();
-
-    Token t = lexer.peekNextToken();
-    while (t.getLexeme().equals("&") || t.getLexeme().equals("|")){
-      t = lexer.getNextToken();
-      relationalExpression();
-
-      if (t.getLexeme().equals("&")){
-        storeCode("and");
-      }
-      else {
-        storeCode("or");
-      }
-
-      t = lexer.peekNextToken();
-    }
-  }
-
-  private void relationalExpression(){
-    arithmeticExpression();
-
-    Token t = lexer.peekNextToken();
-    while (t.getLexeme().equals("=") || t.getLexeme().equals("<") || t.getLexeme().equals(">")){
-      t = lexer.getNextToken();
-      arithmeticExpression();
-
-      if (t.getLexeme().equals("=")){
-        storeCode("eq");
-      }
-      else if (t.getLexeme().equals("<")){
-        storeCode("lt");
-      }
-      else {
-        storeCode("gt");
-      }
-
-      t = lexer.peekNextToken();
-    }
-  }
-
-  private void arithmeticExpression(){
-    term();
-
-    Token t = lexer.peekNextToken();
-    while (t.getLexeme().equals("+") || t.getLexeme().equals("-")){
-      t = lexer.getNextToken();
-      term();
-
-      if (t.getLexeme().equals("+")){
-        storeCode("add");
-      }
-      else{
-        storeCode("sub");
-      }
-
-      t = lexer.peekNextToken();
-    }
-  }
-
-  private void term(){
-    factor();
-
-    Token t = lexer.peekNextToken();
-    while (t.getLexeme().equals("*") || t.getLexeme().equals("/")){
-      t = lexer.getNextToken();
-      factor();
-
-      if (t.getLexeme().equals("*")){
-        storeCode("call Math.multiply 2");
-      }
-      else {
-        storeCode("call Math.divide 2");
-      }
-
-      t = lexer.peekNextToken();
-    }
-  }
-
-  private void factor(){
-    Token t = lexer.peekNextToken();
-    boolean negative = false;
-    boolean not = false;
-    if (t.getLexeme().equals("-")){
-      t = lexer.getNextToken();
-      negative = true;
-    }
-    else if (t.getLexeme().equals("~")){
-      t =lexer.getNextToken();
-      not = true;
-    }
-
-    operand();
-
-    // Turns the last integer constant pushed into a negative value or
-    // applied the not operation to a boolean expression
-    if (negative){
-      storeCode("neg");
-    }
-    else if (not){
-      storeCode("not");
-    }
-  }
-
-  private void operand(){
-    Token t = lexer.getNextToken();
-    if (t.getType() == Token.TokenTypes.num){
-      operandType = "int";
-      storeCode("push constant " + t.getLexeme());
-    }
-    else if (t.getType() == Token.TokenTypes.id){
-      identifierOperand = t.getLexeme();
-      String functionName = identifierOperand;
-
-      t = lexer.peekNextToken();
-      if (t.getLexeme().equals(".")){
-        lexer.getNextToken();
-        t = lexer.peekNextToken();
-        if (t.getType() == Token.TokenTypes.id){
-          t = lexer.getNextToken();
-          functionName = functionName + "." + t.getLexeme();
-        }
-        else {
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Expected identifier, got " + t.getLexeme() + ".");
-        }
-      }
-
-      t = lexer.peekNextToken();
-      if (t.getLexeme().equals("[")){
-
-        if (symbolTables.get(currSymbolTable).lookUp(identifierOperand)){
-          Symbol s = symbolTables.get(currSymbolTable).getSymbol(identifierOperand);
-          if (s.getKind().equals("argument")){
-            storeCode("push argument " + s.getOffset());
-          }
-          else if (s.getKind().equals("var")){
-            storeCode("push local " + s.getOffset());
-          }
-        }
-        else if (symbolTables.get(0).lookUp(identifierOperand)){
-          Symbol s = symbolTables.get(0).getSymbol(identifierOperand);
-          storeCode("push static " + s.getOffset());
-        }
-        else {
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Array is not defined.");
-        }
-
-        lexer.getNextToken();
-        expression();
-
-        t = lexer.getNextToken();
-        if (t.getLexeme().equals("]")){
-          storeCode("add");
-          return;
-        }
-        else {
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Expected \"]\", got " + t.getLexeme() + ".");
-        }
-      }
-
-      t = lexer.peekNextToken();
-      if (t.getLexeme().equals("(")){
-        lexer.getNextToken();
-        int args = expressionList();
-
-        t = lexer.getNextToken();
-        if (t.getLexeme().equals(")")){
-          storeCode("call " + functionName + " " + args);
-          return;
-        }
-        else {
-          throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                  "Expected \")\", got " + t.getLexeme() + ".");
-        }
-      }
-
-      if (symbolTables.get(currSymbolTable).lookUp(identifierOperand)){
-        Symbol s = symbolTables.get(currSymbolTable).getSymbol(identifierOperand);
-        int offset = s.getOffset();
-        if (s.getKind().equals("argument")){
-          storeCode("push argument " + offset);
-        }
-        else if (s.getKind().equals("var")){
-          storeCode("push local " + offset);
-        }
-        else if (s.getKind().equals("field")){
-          storeCode("push static " + offset);
-        }
-      }
-      else if (symbolTables.get(0).lookUp(identifierOperand)){
-        Symbol s = symbolTables.get(0).getSymbol(identifierOperand);
-        int offset = s.getOffset();
-        storeCode("push static " + offset);
-      }
-    }
-    else if (t.getLexeme().equals("(")){
-      expression();
-
-      t = lexer.getNextToken();
-      if (t.getLexeme().equals(")")){
-
-      }
-      else {
-        throw new ParserException("Error on line " + t.getLineNum() + ". " +
-                "Expected \")\", got " + t.getLexeme() + ".");
-      }
-    }
-    else if (t.getType() == Token.TokenTypes.string || t.getType() == Token.TokenTypes.character){
-      operandType = "string";
-      int stringLen = t.getLexeme().length();
-      //Original lexeme includes the start and end quotation mark of the
-      // string, so the actual string length is length of lexeme - 2
-      storeCode("push constant " + (stringLen-2));
-      storeCode("call String.new 1");
-
-      //Start from the first char after the opening quotation mark and end at
-      // the char before the closing quotation mark
-      for (int i = 1 ; i < t.getLexeme().length()-1; ++i){
-        int charValue = (int) t.getLexeme().charAt(i);
-        storeCode("push constant " + charValue);
-        storeCode("call String.appendChar 1");
-      }
-
-    }
-    else if (t.getLexeme().equals("true")){
-      operandType = "boolean";
-      storeCode("push constant 1");
-      storeCode("neg");
-    }
-    else if (t.getLexeme().equals("false")){
-      operandType = "boolean";
-      storeCode("push constant 0");
-    }
-    else if (t.getType() == Token.TokenTypes.nullReference){
-      operandType = "null";
-      storeCode("push constant 0");
-    }
-    else if (t.getLexeme().equals("this")){
-      operandType = className;
-      storeCode("push pointer 0");
-    }
-    else {
-      throw new ParserException("Error on line " + t.getLineNum() + ". " +
-              "Expected operator, got " + t.getLexeme() + ".");
+    @Override
+    protected SubroutineCompiler compute(){
+      compiler.compile();
+      return compiler;
     }
   }
 }
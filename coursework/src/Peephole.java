@@ -0,0 +1,287 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Removes wasteful sequences of VM instructions from the code of a
+ * subroutine, such as a double not or adding a constant zero.
+ *
+ * The optimizer slides a window along the code, copying one instruction at
+ * a time to the output and then trying each rule of its table against the
+ * instructions at the end of the output. A rule that matches rewrites them
+ * in place, and the rules are tried again, so a rewrite that exposes
+ * another pattern, such as x + -0, is caught in the same pass. The window
+ * is as long as the longest rule.
+ *
+ * No rule matches a label, so control can never enter the middle of a
+ * window, and every rewrite leaves the stack and memory as they would have
+ * been. A pop X followed by a push X cannot be removed, since the VM has no
+ * command to duplicate the top of the stack.
+ *
+ * The optimizer is used unless the jack.peephole system property is set to
+ * "off". When it is set to "report", the compiler prints how many times each
+ * rule fired once it has finished.
+ *
+ * @author Adam Turner
+ */
+public class Peephole {
+
+  /** Whether subroutines are optimized before their code is written */
+  public static final boolean ENABLED =
+          !"off".equals(System.getProperty("jack.peephole", "on"));
+
+  /** Whether the compiler reports the rewrites made */
+  public static final boolean REPORT =
+          "report".equals(System.getProperty("jack.peephole", "on"));
+
+  /**
+   * Checks a single instruction of a window.
+   */
+  public interface Step {
+    boolean matches(VmCode code, int i);
+  }
+
+  /**
+   * Replaces a matched window, which starts at the given index and runs to
+   * the end of the code.
+   */
+  public interface Rewrite {
+    void apply(VmCode code, int start);
+  }
+
+  /**
+   * A rule of the table: a pattern of instructions and what replaces them.
+   */
+  public static class Rule {
+
+    private String name;
+    private Step[] pattern;
+    private Rewrite rewrite;
+
+    /**
+     * Creates a new Rule
+     * @param name the name the rule is reported under
+     * @param rewrite replaces the matched instructions
+     * @param pattern a step for each instruction of the window, in order
+     */
+    public Rule(String name, Rewrite rewrite, Step... pattern){
+      this.name = name;
+      this.rewrite = rewrite;
+      this.pattern = pattern;
+    }
+
+    /**
+     * Returns the name of the rule
+     * @return name
+     */
+    public String getName(){
+      return name;
+    }
+
+    /**
+     * Returns the number of instructions the rule matches
+     * @return the length of the pattern
+     */
+    public int length(){
+      return pattern.length;
+    }
+
+    /**
+     * Checks whether the rule matches the instructions at the end of the code
+     * @param code the code
+     * @return true if every step matches
+     */
+    private boolean matches(VmCode code){
+      int start = code.size() - pattern.length;
+      if (start < 0){
+        return false;
+      }
+      for (int i = 0 ; i < pattern.length ; ++i){
+        if (!pattern[i].matches(code, start + i)){
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** The rules used by the compiler */
+  private static final List<Rule> RULES = Arrays.asList(
+          new Rule("not not", Peephole::remove, op(VmOpcode.NOT),
+                  op(VmOpcode.NOT)),
+          new Rule("neg neg", Peephole::remove, op(VmOpcode.NEG),
+                  op(VmOpcode.NEG)),
+          new Rule("add 0", Peephole::remove, constant(0), op(VmOpcode.ADD)),
+          new Rule("sub 0", Peephole::remove, constant(0), op(VmOpcode.SUB)),
+          new Rule("or false", Peephole::remove, constant(0),
+                  op(VmOpcode.OR)),
+          new Rule("and true", Peephole::remove, constant(1),
+                  op(VmOpcode.NEG), op(VmOpcode.AND)),
+          new Rule("neg 0", (code, start) -> code.truncate(start + 1),
+                  constant(0), op(VmOpcode.NEG)),
+          new Rule("not true", Peephole::pushFalse, constant(1),
+                  op(VmOpcode.NEG), op(VmOpcode.NOT)),
+          new Rule("if-goto false", Peephole::remove, constant(0),
+                  op(VmOpcode.IF_GOTO)),
+          new Rule("if-goto true", Peephole::jump, constant(1),
+                  op(VmOpcode.NEG), op(VmOpcode.IF_GOTO)),
+          new Rule("push pop", Peephole::remove, op(VmOpcode.PUSH),
+                  (code, i) -> code.getOpcode(i) == VmOpcode.POP &&
+                          code.isSameLocation(i - 1, i)));
+
+  private static final Peephole STANDARD = new Peephole(RULES);
+
+  private Rule[] rules;
+  private int window;
+  private AtomicLongArray fired;
+  private AtomicLong instructionsIn;
+  private AtomicLong instructionsOut;
+
+  /**
+   * Creates a new Peephole optimizer
+   * @param rules the rule table, tried in order
+   */
+  public Peephole(List<Rule> rules){
+    this.rules = rules.toArray(new Rule[0]);
+    window = 0;
+    for (Rule rule : this.rules){
+      window = Math.max(window, rule.length());
+    }
+    fired = new AtomicLongArray(this.rules.length);
+    instructionsIn = new AtomicLong();
+    instructionsOut = new AtomicLong();
+  }
+
+  /**
+   * Returns the optimizer used by the compiler, whose counts are shared by
+   * every subroutine compiled in the JVM
+   * @return the standard optimizer
+   */
+  public static Peephole standard(){
+    return STANDARD;
+  }
+
+  /**
+   * Optimizes the code of a subroutine. The counts are safe to update from
+   * several threads at once.
+   * @param code the code
+   * @return the optimized code
+   */
+  public VmCode optimize(VmCode code){
+    VmCode out = new VmCode();
+    for (int i = 0 ; i < code.size() ; ++i){
+      out.append(code, i);
+      boolean rewritten = true;
+      while (rewritten){
+        rewritten = false;
+        for (int r = 0 ; r < rules.length ; ++r){
+          if (rules[r].matches(out)){
+            rules[r].rewrite.apply(out, out.size() - rules[r].length());
+            fired.incrementAndGet(r);
+            rewritten = true;
+            break;
+          }
+        }
+      }
+    }
+
+    instructionsIn.addAndGet(code.size());
+    instructionsOut.addAndGet(out.size());
+    return out;
+  }
+
+  /**
+   * Returns the length of the longest rule
+   * @return window
+   */
+  public int getWindow(){
+    return window;
+  }
+
+  /**
+   * Returns the number of times a rule has fired
+   * @param rule the index of the rule in the table
+   * @return the count
+   */
+  public long getFired(int rule){
+    return fired.get(rule);
+  }
+
+  /**
+   * Returns the number of instructions given to the optimizer
+   * @return instructionsIn
+   */
+  public long getInstructionsIn(){
+    return instructionsIn.get();
+  }
+
+  /**
+   * Returns the number of instructions left after optimizing
+   * @return instructionsOut
+   */
+  public long getInstructionsOut(){
+    return instructionsOut.get();
+  }
+
+  /**
+   * Prints how many times each rule fired and the instructions removed
+   * @param out the stream to print to
+   */
+  public void printReport(PrintStream out){
+    for (int r = 0 ; r < rules.length ; ++r){
+      out.printf("%-14s %d%n", rules[r].getName(), fired.get(r));
+    }
+    out.printf("Instructions: %d in, %d out%n", instructionsIn.get(),
+            instructionsOut.get());
+  }
+
+  /**
+   * Returns a step matching any instruction with the given command
+   * @param opcode the command
+   * @return the step
+   */
+  public static Step op(VmOpcode opcode){
+    return (code, i) -> code.getOpcode(i) == opcode;
+  }
+
+  /**
+   * Returns a step matching a push of the given constant
+   * @param value the value of the constant
+   * @return the step
+   */
+  public static Step constant(int value){
+    return (code, i) -> code.isConstant(i, value);
+  }
+
+  /**
+   * Removes the whole window
+   * @param code the code
+   * @param start the index of the first instruction of the window
+   */
+  private static void remove(VmCode code, int start){
+    code.truncate(start);
+  }
+
+  /**
+   * Replaces the window with a push of false
+   * @param code the code
+   * @param start the index of the first instruction of the window
+   */
+  private static void pushFalse(VmCode code, int start){
+    code.truncate(start);
+    code.push(VmSegment.CONSTANT, 0);
+  }
+
+  /**
+   * Replaces a conditional jump on true with a jump to the same label
+   * @param code the code
+   * @param start the index of the first instruction of the window
+   */
+  private static void jump(VmCode code, int start){
+    String label = code.getName(code.getOperand(code.size() - 1));
+    code.truncate(start);
+    code.label(VmOpcode.GOTO, label);
+  }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads the contents of a source file into a character buffer using a
+ * FileChannel. Large files are memory mapped, while smaller files are read
+ * into a direct buffer that is reused between calls on the same thread. In
+ * both cases the bytes are decoded as UTF-8 (which covers US-ASCII) in a
+ * single bulk operation.
+ *
+ * @author Adam Turner
+ */
+public class SourceLoader {
+
+  /** Files of at least this many bytes are memory mapped rather than read */
+  public static final int MAP_THRESHOLD = 1 << 20;
+
+  private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+  private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+          ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE));
+
+  /**
+   * Reads and decodes the given file. The returned buffer wraps an array
+   * that may be longer than the text; the text runs from index 0 up to the
+   * limit of the buffer.
+   * @param filename the path of the file to be loaded
+   * @return a character buffer holding the contents of the file
+   * @throws IOException thrown if the file cannot be found or read
+   */
+  public static CharBuffer load(String filename) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filename),
+            StandardOpenOption.READ);
+
+    try {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE){
+        throw new IOException("Error. " + filename + " is too large to be " +
+                "compiled.");
+      }
+
+      ByteBuffer bytes;
+      if (size >= MAP_THRESHOLD){
+        bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      else {
+        bytes = readBuffer((int) size);
+        while (bytes.hasRemaining() && channel.read(bytes) != -1){
+          // Keep reading until the file has been fully transferred
+        }
+        bytes.flip();
+      }
+
+      return decode(bytes);
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Returns the reusable direct buffer for the current thread, cleared and
+   * limited to the given size, growing it first if it is too small.
+   * @param size the number of bytes that need to be read
+   * @return a direct byte buffer with exactly size bytes remaining
+   */
+  private static ByteBuffer readBuffer(int size){
+    ByteBuffer buffer = READ_BUFFER.get();
+    if (buffer.capacity() < size){
+      buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1);
+      READ_BUFFER.set(buffer);
+    }
+
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Decodes UTF-8 bytes into a new character buffer. UTF-8 never produces
+   * more characters than there are bytes, so the buffer is sized to the
+   * input and filled by a single call to the decoder.
+   * @param bytes the encoded contents of the file
+   * @return the decoded characters, flipped ready to be read
+   */
+  private static CharBuffer decode(ByteBuffer bytes){
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    CharBuffer chars = CharBuffer.wrap(new char[bytes.remaining()]);
+    //Malformed input is replaced rather than reported, so the only possible
+    // result here is underflow once every byte has been consumed
+    decoder.decode(bytes, chars, true);
+    decoder.flush(chars);
+    chars.flip();
+    return chars;
+  }
+}
@@ -0,0 +1,338 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces calls to Math.multiply and Math.divide by a constant with
+ * sequences of cheaper VM commands, when a cost model finds them faster.
+ *
+ * A multiplication by a constant is lowered to doubling and adding, working
+ * through the bits of the constant from the top down, with the other
+ * operand kept in temp 1 and the doubled value passed through temp 0 since
+ * the VM cannot duplicate the top of the stack. A division by a power of
+ * two is lowered to picking out the bits of the dividend that survive the
+ * shift, which is only correct if the dividend is provably non-negative.
+ * The generated code uses no other temp segments, and the sequences contain
+ * no calls, so nothing else can change temp 0 or temp 1 while they run.
+ *
+ * Costs are estimates of the Hack instructions executed, for a standard VM
+ * translator and the Math class of the Jack OS, whose multiply loops over
+ * all 16 bits and whose divide recurses once for each bit of the quotient.
+ * A sequence is also limited to MAX_LENGTH VM commands, so a constant with
+ * many bits, such as 32767, keeps its call rather than growing the code by
+ * a hundred commands to replace two.
+ *
+ * Reduction is done unless the jack.reduce system property is set to "off".
+ *
+ * @author Adam Turner
+ */
+public final class StrengthReducer {
+
+  /** Whether multiplications and divisions by constants are reduced */
+  public static final boolean ENABLED =
+          !"off".equals(System.getProperty("jack.reduce", "on"));
+
+  // Estimated Hack instructions executed by each VM command
+  static final int PUSH_COST = 7;
+  static final int POP_COST = 6;
+  static final int BINARY_COST = 5;
+  static final int UNARY_COST = 3;
+  static final int COMPARE_COST = 15;
+  /** A call and return, including saving and restoring the frame */
+  static final int CALL_COST = 100;
+  /** One pass of the loop in Math.multiply */
+  static final int MULTIPLY_STEP_COST = 180;
+  /** One level of the recursion in Math.divide, besides the call itself */
+  static final int DIVIDE_STEP_COST = 150;
+
+  static final int MULTIPLY_COST = CALL_COST + 16 * MULTIPLY_STEP_COST;
+  /** Doubling the value on top of the stack through temp 0 */
+  private static final int DOUBLE_COST = POP_COST + 2 * PUSH_COST +
+          BINARY_COST;
+  /** Moving one bit of the dividend to its place in the quotient */
+  private static final int BIT_COST = 4 * PUSH_COST + 2 * BINARY_COST +
+          COMPARE_COST;
+
+  /** The most VM commands a sequence may have in place of a call */
+  static final int MAX_LENGTH = 40;
+
+  /** How deep bound() looks into an expression */
+  private static final int MAX_DEPTH = 32;
+
+  private static final AtomicLong multiplications = new AtomicLong();
+  private static final AtomicLong divisions = new AtomicLong();
+  private static final AtomicLong callsKept = new AtomicLong();
+  private static final AtomicLong cyclesSaved = new AtomicLong();
+
+  private StrengthReducer(){
+  }
+
+  /**
+   * Generates the multiplication of the value on top of the stack by a
+   * constant, if that is cheaper than calling Math.multiply
+   * @param code the code to append to
+   * @param factor the constant
+   * @return true if the multiplication was generated, false if the caller
+   * should push the constant and call Math.multiply
+   */
+  public static boolean multiply(VmCode code, int factor){
+    int magnitude = Math.abs(factor);
+    int bits = 32 - Integer.numberOfLeadingZeros(magnitude);
+    int ones = Integer.bitCount(magnitude);
+
+    int cost;
+    int length;
+    if (magnitude == 0){
+      cost = POP_COST + PUSH_COST;
+      length = 2;
+    }
+    else {
+      cost = (bits - 1) * DOUBLE_COST;
+      length = (bits - 1) * 4;
+      if (ones > 1){
+        cost += POP_COST + PUSH_COST +
+                (ones - 1) * (PUSH_COST + BINARY_COST);
+        length += 2 + (ones - 1) * 2;
+      }
+      if (factor < 0){
+        cost += UNARY_COST;
+        length++;
+      }
+    }
+
+    if (!worthwhile(cost, length, MULTIPLY_COST)){
+      return false;
+    }
+
+    if (magnitude == 0){
+      //The operand has already been evaluated, for any calls it makes
+      code.pop(VmSegment.TEMP, 0);
+      code.push(VmSegment.CONSTANT, 0);
+    }
+    else if (ones == 1){
+      for (int i = 1 ; i < bits ; ++i){
+        doubleTop(code);
+      }
+    }
+    else {
+      code.pop(VmSegment.TEMP, 1);
+      code.push(VmSegment.TEMP, 1);
+      for (int bit = bits - 2 ; bit >= 0 ; --bit){
+        doubleTop(code);
+        if ((magnitude >> bit & 1) != 0){
+          code.push(VmSegment.TEMP, 1);
+          code.command(VmOpcode.ADD);
+        }
+      }
+    }
+    if (magnitude != 0 && factor < 0){
+      code.command(VmOpcode.NEG);
+    }
+
+    multiplications.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Generates the division of the value on top of the stack by a constant,
+   * if the divisor is a power of two, the dividend cannot be negative
+   * unless the divisor is one, and that is cheaper than calling Math.divide
+   * @param code the code to append to
+   * @param divisor the constant
+   * @param bound the largest value the dividend can have, or -1 if it may
+   * be negative
+   * @return true if the division was generated, false if the caller should
+   * push the constant and call Math.divide
+   */
+  public static boolean divide(VmCode code, int divisor, int bound){
+    if (divisor <= 0 || Integer.bitCount(divisor) != 1 ||
+            (divisor != 1 && bound < 0)){
+      callsKept.incrementAndGet();
+      return false;
+    }
+
+    int shift = Integer.numberOfTrailingZeros(divisor);
+    int high = 31 - Integer.numberOfLeadingZeros(bound < 0 ?
+            Short.MAX_VALUE : bound);
+    //Math.divide doubles the divisor until it passes the dividend
+    int callCost = CALL_COST + DIVIDE_STEP_COST +
+            Math.max(0, high - shift + 1) * (CALL_COST + DIVIDE_STEP_COST);
+
+    int cost;
+    int length;
+    if (shift == 0){
+      cost = 0;
+      length = 0;
+    }
+    else if (high < shift){
+      cost = POP_COST + PUSH_COST;
+      length = 2;
+    }
+    else {
+      cost = POP_COST + (high - shift + 1) * BIT_COST +
+              (high - shift) * BINARY_COST;
+      length = 1 + (high - shift + 1) * 7 + (high - shift);
+    }
+
+    if (!worthwhile(cost, length, callCost)){
+      return false;
+    }
+
+    if (shift == 0){
+      //Division by one leaves the dividend as it is
+    }
+    else if (high < shift){
+      code.pop(VmSegment.TEMP, 0);
+      code.push(VmSegment.CONSTANT, 0);
+    }
+    else {
+      code.pop(VmSegment.TEMP, 1);
+      for (int bit = shift ; bit <= high ; ++bit){
+        //The and leaves 2^bit or 0, and comparing that with 0 gives a mask
+        // of -1 or 0 for the bit's place in the quotient
+        code.push(VmSegment.TEMP, 1);
+        code.push(VmSegment.CONSTANT, 1 << bit);
+        code.command(VmOpcode.AND);
+        code.push(VmSegment.CONSTANT, 0);
+        code.command(VmOpcode.GT);
+        code.push(VmSegment.CONSTANT, 1 << (bit - shift));
+        code.command(VmOpcode.AND);
+        if (bit > shift){
+          code.command(VmOpcode.ADD);
+        }
+      }
+    }
+
+    divisions.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Compares the cost of a sequence with the call it replaces, which also
+   * pushes the constant, and adds the estimated saving to the static total
+   * if the sequence is cheaper and short enough
+   * @param cost the estimated cost of the sequence
+   * @param length the number of VM commands in the sequence
+   * @param callCost the estimated cost of the call
+   * @return true if the sequence should be used
+   */
+  private static boolean worthwhile(int cost, int length, int callCost){
+    int saved = callCost + PUSH_COST - cost;
+    if (saved <= 0 || length > MAX_LENGTH){
+      callsKept.incrementAndGet();
+      return false;
+    }
+    cyclesSaved.addAndGet(saved);
+    return true;
+  }
+
+  /**
+   * Doubles the value on top of the stack
+   * @param code the code to append to
+   */
+  private static void doubleTop(VmCode code){
+    code.pop(VmSegment.TEMP, 0);
+    code.push(VmSegment.TEMP, 0);
+    code.push(VmSegment.TEMP, 0);
+    code.command(VmOpcode.ADD);
+  }
+
+  /**
+   * Returns the largest value an expression can have, if it can be shown
+   * never to be negative. Only constants and operators on them, and ands
+   * with them, such as x &amp; 255, are bounded.
+   * @param ast the tree holding the expression
+   * @param node the id of the expression
+   * @return the bound, or -1 if the expression may be negative
+   */
+  public static int bound(Ast ast, int node){
+    return bound(ast, node, 0);
+  }
+
+  private static int bound(Ast ast, int node, int depth){
+    int value = ConstantFolder.value(ast, node);
+    if (value != ConstantFolder.NOT_CONSTANT){
+      return value >= 0 ? value : -1;
+    }
+    if (ast.getKind(node) != Ast.BINARY || depth == MAX_DEPTH){
+      return -1;
+    }
+
+    int left = ast.getFirstChild(node);
+    int right = ast.getNextSibling(left);
+    int leftBound = bound(ast, left, depth + 1);
+    int rightBound = bound(ast, right, depth + 1);
+    switch (ast.getValue(node)){
+      case TokenKind.AND:
+        //The result has no bits that either operand lacks
+        if (leftBound < 0){
+          return rightBound;
+        }
+        if (rightBound < 0){
+          return leftBound;
+        }
+        return Math.min(leftBound, rightBound);
+      case TokenKind.OR:
+        if (leftBound < 0 || rightBound < 0){
+          return -1;
+        }
+        if (leftBound == 0 || rightBound == 0){
+          return Math.max(leftBound, rightBound);
+        }
+        return Integer.highestOneBit(Math.max(leftBound, rightBound)) * 2 - 1;
+      case TokenKind.PLUS:
+        if (leftBound < 0 || rightBound < 0 ||
+                leftBound + rightBound > Short.MAX_VALUE){
+          return -1;
+        }
+        return leftBound + rightBound;
+      case TokenKind.SLASH:
+        value = ConstantFolder.value(ast, right);
+        if (leftBound < 0 || value == ConstantFolder.NOT_CONSTANT ||
+                value <= 0){
+          return -1;
+        }
+        return leftBound / value;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Returns the number of multiplications reduced
+   * @return multiplications
+   */
+  public static long getMultiplications(){
+    return multiplications.get();
+  }
+
+  /**
+   * Returns the number of divisions reduced
+   * @return divisions
+   */
+  public static long getDivisions(){
+    return divisions.get();
+  }
+
+  /**
+   * Returns a static estimate of the Hack instructions saved, from the cost
+   * model alone, counting each reduced operation as executed once. It is
+   * not measured, and says nothing of how often the code runs.
+   * @return cyclesSaved
+   */
+  public static long getCyclesSaved(){
+    return cyclesSaved.get();
+  }
+
+  /**
+   * Prints the operations reduced and the static estimate of the cycles
+   * saved
+   * @param out the stream to print to
+   */
+  public static void printReport(PrintStream out){
+    out.printf("Multiplications reduced: %d%n", multiplications.get());
+    out.printf("Divisions reduced: %d%n", divisions.get());
+    out.printf("Calls kept: %d%n", callsKept.get());
+    out.printf("Static estimate of cycles saved, each reduced operation " +
+            "counted once: %d%n", cyclesSaved.get());
+  }
+}
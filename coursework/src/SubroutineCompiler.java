@@ -0,0 +1,1052 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Parses the body of a single subroutine and generates its VM code. A
+ * Parser reads the declarations of the class first, and each
+ * SubroutineCompiler then works from its own position in the token buffer,
+ * with its own syntax tree, local symbol table and VM buffer, so that the
+ * subroutines of a class can be compiled on separate threads.
+ *
+ * The class symbol table is shared and only ever read. Only the symbols
+ * declared before the subroutine are visible from it, as they would be if
+ * the class were compiled in a single pass.
+ *
+ * @author Adam Turner
+ */
+public class SubroutineCompiler {
+
+  /** The binding strength of each binary operator, indexed by token kind.
+   * Every other kind has a precedence of zero. */
+  private static final int[] PRECEDENCE = new int[TokenKind.COUNT];
+  private static final int LOWEST_PRECEDENCE = 1;
+
+  static {
+    PRECEDENCE[TokenKind.AND] = 1;
+    PRECEDENCE[TokenKind.OR] = 1;
+    PRECEDENCE[TokenKind.ASSIGN] = 2;
+    PRECEDENCE[TokenKind.LESS] = 2;
+    PRECEDENCE[TokenKind.GREATER] = 2;
+    PRECEDENCE[TokenKind.PLUS] = 3;
+    PRECEDENCE[TokenKind.MINUS] = 3;
+    PRECEDENCE[TokenKind.STAR] = 4;
+    PRECEDENCE[TokenKind.SLASH] = 4;
+  }
+
+  private Lexer lexer;
+  private SymbolTable locals;
+  private int classType;
+  private String currScope;
+  private int returnType;
+  private int operandType;
+  private String identifierOperand;
+  private boolean identifierOperandSet;
+  private boolean usedPreviousState;
+  private int numLocalVars;
+  private boolean isFunctionWritten;
+  private Ast ast;
+  private VmCode vmCode;
+  private List<String> messages;
+  private RuntimeException error;
+
+  /**
+   * Creates a new SubroutineCompiler for a body that a Parser has skipped
+   * @param lexer a lexer whose next token is the first one after the
+   * opening brace of the body
+   * @param locals the symbol table of the subroutine holding its arguments,
+   * nested in the class symbol table, which local variables are added to
+   * @param classType the id of the class in the TypeRegistry
+   * @param scope the name of the subroutine
+   * @param returnType the id of the return type of the subroutine
+   * @param identifierOperand the last identifier operand of the previous
+   * subroutine, which a type check can still see
+   */
+  public SubroutineCompiler(Lexer lexer, SymbolTable locals,
+                            int classType, String scope, int returnType,
+                            String identifierOperand){
+    this.lexer = lexer;
+    this.locals = locals;
+    this.classType = classType;
+    currScope = scope;
+    this.returnType = returnType;
+    operandType = TypeRegistry.NONE;
+    this.identifierOperand = identifierOperand;
+    identifierOperandSet = false;
+    usedPreviousState = false;
+    messages = new ArrayList<>();
+  }
+
+  /**
+   * Parses the body and generates its VM code. An error is not thrown but
+   * kept, so that it can be reported once any errors in the subroutines
+   * before this one have been.
+   *
+   * Parentheses, array indices and call arguments are parsed recursively,
+   * so an expression nested thousands of levels deep can run out of stack.
+   * That is reported as an error on the line the parser had reached.
+   */
+  public void compile(){
+    ast = new Ast();
+    vmCode = new VmCode();
+    try {
+      int subroutine = ast.add(Ast.SUBROUTINE, ast.addString(currScope), 0);
+      subroutineBody(subroutine);
+      vmCode = new CodeGenerator(ast).generate(subroutine);
+      if (Peephole.ENABLED){
+        vmCode = Peephole.standard().optimize(vmCode);
+      }
+    }
+    catch (RuntimeException e){
+      error = e;
+    }
+    catch (StackOverflowError e){
+      Token t = lexer.peekNextToken();
+      error = new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expression is nested too deeply.");
+    }
+  }
+
+  /**
+   * Returns the VM code of the subroutine
+   * @return vmCode
+   */
+  public VmCode getVmCode() {
+    return vmCode;
+  }
+
+  /**
+   * Returns the error found in the subroutine, if there was one
+   * @return error, or null
+   */
+  public RuntimeException getError() {
+    return error;
+  }
+
+  /**
+   * Returns the lines that would have been printed out before the error was
+   * found
+   * @return messages
+   */
+  public List<String> getMessages() {
+    return messages;
+  }
+
+  /**
+   * Returns the symbol table of the subroutine, including its local
+   * variables
+   * @return locals
+   */
+  public SymbolTable getLocals() {
+    return locals;
+  }
+
+  /**
+   * Returns the syntax tree of the subroutine body
+   * @return ast
+   */
+  public Ast getAst() {
+    return ast;
+  }
+
+  /**
+   * Returns whether a type check saw the identifier operand passed in from
+   * the previous subroutine. If it did, and that operand turns out to be
+   * different, the subroutine has to be compiled again.
+   * @return usedPreviousState
+   */
+  public boolean usedPreviousState() {
+    return usedPreviousState;
+  }
+
+  /**
+   * Returns whether the subroutine set an identifier operand of its own. If
+   * it did not, the operand passed in is still the one to pass on.
+   * @return identifierOperandSet
+   */
+  public boolean isIdentifierOperandSet() {
+    return identifierOperandSet;
+  }
+
+  /**
+   * Returns the last identifier operand of the subroutine, to be passed on
+   * to the next one
+   * @return identifierOperand
+   */
+  public String getIdentifierOperand() {
+    return identifierOperand;
+  }
+
+  /**
+   * Checks whether a class symbol declared before this subroutine has the
+   * given name
+   * @param name the name of the symbol
+   * @return true if the symbol is visible
+   */
+  private boolean lookUpGlobal(String name){
+    return locals.resolveOuter(name) != null;
+  }
+
+  /**
+   * Returns the class symbol declared before this subroutine with the given
+   * name
+   * @param name the name of the symbol
+   * @return the symbol, or null if there is none
+   */
+  private Symbol getGlobal(String name){
+    return locals.resolveOuter(name);
+  }
+
+  /**
+   * Parses the statements of a subroutine body, whose opening brace has
+   * already been read, up to and including its closing brace
+   * @param subroutine the id of the subroutine node
+   */
+  private void subroutineBody(int subroutine){
+    Token t;
+    numLocalVars = 0;
+    isFunctionWritten = false;
+
+    //Blocks that have been opened but not yet closed are kept on a stack
+    // rather than parsed by recursion, so nesting is limited only by memory
+    Deque<OpenBlock> blocks = new ArrayDeque<>();
+    blocks.push(new OpenBlock(OpenBlock.BODY, subroutine, Ast.NONE));
+    while (!blocks.isEmpty()){
+      OpenBlock open = blocks.peek();
+
+      t = lexer.peekNextToken();
+      if (t.getKind() != TokenKind.RIGHT_BRACE){
+        OpenBlock inner = statement(open.node);
+        if (inner != null){
+          blocks.push(inner);
+        }
+      }
+      else {
+        blocks.pop();
+        closeBlock(open, blocks);
+      }
+    }
+  }
+
+  /**
+   * Reads the closing brace of a block. If the block is the body of an if
+   * statement with an else clause, the else block is opened in its place.
+   * @param open the block being closed
+   * @param blocks the stack of blocks that are still open
+   */
+  private void closeBlock(OpenBlock open, Deque<OpenBlock> blocks){
+    Token t = lexer.getNextToken();
+    if (open.role == OpenBlock.BODY){
+      return;
+    }
+
+    if (t.getKind() == TokenKind.RIGHT_BRACE){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \"}\", got " + t.getLexeme() + ".");
+    }
+
+    if (open.role != OpenBlock.THEN){
+      return;
+    }
+
+    t = lexer.peekNextToken();
+    if (t.getKind() == TokenKind.ELSE){
+      lexer.getNextToken();
+
+      t = lexer.getNextToken();
+      if (t.getKind() == TokenKind.LEFT_BRACE){
+
+      }
+      else {
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected \"{\", got" + t.getLexeme() + ".");
+      }
+
+      int block = ast.add(Ast.BLOCK);
+      ast.append(open.statement, block);
+      blocks.push(new OpenBlock(OpenBlock.ELSE, block, open.statement));
+    }
+  }
+
+  /**
+   * Parses a statement and adds it to the end of a list of statements. The
+   * body of an if or while statement is not parsed here, but returned to be
+   * filled in by the caller.
+   * @param block the id of the node that the statement belongs to
+   * @return the block opened by the statement, or null if it has none
+   */
+  private OpenBlock statement(int block){
+    Token t = lexer.peekNextToken();
+
+    if (t.getKind() != TokenKind.VAR) {
+      if (!isFunctionWritten) {
+        ast.append(block, ast.add(Ast.FUNCTION, ast.addString(currScope),
+                numLocalVars));
+        isFunctionWritten = true;
+      }
+    }
+
+    switch (t.getKind()){
+      case TokenKind.VAR:
+        varDeclareStatement();
+        break;
+      case TokenKind.LET:
+        ast.append(block, letStatement());
+        break;
+      case TokenKind.IF:
+        OpenBlock then = ifStatement();
+        ast.append(block, then.statement);
+        return then;
+      case TokenKind.WHILE:
+        OpenBlock loop = whileStatement();
+        ast.append(block, loop.statement);
+        return loop;
+      case TokenKind.DO:
+        ast.append(block, doStatement());
+        break;
+      case TokenKind.RETURN:
+        ast.append(block, returnStatement());
+        break;
+      default:
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected statement declaration, got " + t.getLexeme() + ".");
+    }
+    return null;
+  }
+
+  private void varDeclareStatement(){
+    Token t = lexer.getNextToken();
+    int type;
+    if (t.getKind() == TokenKind.VAR){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected var, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.peekNextToken();
+    if (t.getType() == Token.TokenTypes.keyword || t.getType() == Token.TokenTypes.id){
+      type = Parser.type(lexer);
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected type, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getType() == Token.TokenTypes.id){
+      if (locals.checkDuplicate(t.getLexeme(), classType)){
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Local variable " + t.getLexeme() + " is already defined.");
+      }
+      locals.insert(t.getLexeme(), type,
+              SymbolKind.VAR, classType);
+      numLocalVars++;
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected identifier, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.peekNextToken();
+    while (t.getKind() == TokenKind.COMMA){
+      lexer.getNextToken();
+
+      t = lexer.getNextToken();
+      if (t.getType() == Token.TokenTypes.id){
+        if (locals.checkDuplicate(t.getLexeme(), classType)){
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Local variable " + t.getLexeme() + " is already defined.");
+        }
+        locals.insert(t.getLexeme(), type,
+                SymbolKind.VAR, classType);
+        numLocalVars++;
+      }
+      else {
+        throw new ParserException("Error on line "+ t.getLineNum() + ". " +
+                "Expected identifier, got " + t.getLexeme() + ".");
+      }
+
+      t = lexer.peekNextToken();
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.SEMICOLON){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \";\", got " + t.getLexeme() + ".");
+    }
+  }
+
+  private int letStatement(){
+    Token t = lexer.getNextToken();
+    Symbol lhs;
+    int let;
+    if (t.getKind() == TokenKind.LET){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected let, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getType() == Token.TokenTypes.id){
+      lhs = locals.resolve(t.getLexeme());
+      if (lhs == null){
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Local variable " + t.getLexeme() + " is not defined.");
+      }
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected identifier, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.peekNextToken();
+    if (t.getKind() == TokenKind.LEFT_BRACKET){
+      let = ast.add(Ast.LET_ARRAY);
+      ast.append(let, variable(lhs));
+
+      lexer.getNextToken();
+      t = lexer.peekNextToken();
+      while (t.getKind() != TokenKind.RIGHT_BRACKET){
+        ast.append(let, expression());
+        //An index with no identifiers in it leaves identifierOperand as it
+        // was, which may be from the end of the previous subroutine
+        if (!identifierOperandSet){
+          usedPreviousState = true;
+        }
+        if (identifierOperand != null){
+          Symbol s =
+                  locals.getSymbol(identifierOperand);
+          if (s.getType() != TypeRegistry.INT){
+            throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                    "Array indices must be an integer.");
+          }
+        }
+        else if (operandType != TypeRegistry.INT){
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Array indices must be integers.");
+        }
+        t = lexer.peekNextToken();
+      }
+      lexer.getNextToken();
+    }
+    else {
+      let = ast.add(Ast.LET);
+      ast.append(let, variable(lhs));
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.ASSIGN){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected =, got " + t.getLexeme() + ".");
+    }
+
+    identifierOperand = null;
+    identifierOperandSet = true;
+    ast.append(let, expression());
+
+    //This section implements type checking for let statements
+    Symbol rhs;
+    if (identifierOperand != null){
+      rhs = locals.resolve(identifierOperand);
+
+      // Checks to see if the type of the local variable is a class (such as
+      // an array) that has already been defined in the symbol table
+      if (lookUpGlobal(TypeRegistry.name(lhs.getType()))){
+
+      }
+      else if ((rhs != null) && (rhs.getKind() == SymbolKind.CLASS)){
+
+      }
+      else if ((rhs != null) && (lhs.getType() != rhs.getType())){
+        messages.add(lhs.toString());
+        messages.add(rhs.toString());
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Mismatched types for " + TypeRegistry.name(lhs.getType()) +
+                " and " + TypeRegistry.name(rhs.getType()));
+      }
+      else if (rhs == null) {
+        if (lhs.getType() != TypeRegistry.find(identifierOperand)){
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Mismatched types for " + TypeRegistry.name(lhs.getType()) +
+                  " and " + identifierOperand);
+        }
+      }
+
+    }
+    else {
+      if (lookUpGlobal(TypeRegistry.name(lhs.getType()))){
+
+      }
+      else if (lhs.getType() != operandType) {
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Mismatched types for " + TypeRegistry.name(lhs.getType()) +
+                " and " + TypeRegistry.name(operandType));
+      }
+    }
+
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.SEMICOLON){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected ; , got " + t.getLexeme() + ".");
+    }
+
+    return let;
+  }
+
+  /**
+   * Creates a node for reading or writing a variable. Locals, arguments and
+   * fields can be accessed, while any other kind of symbol is left
+   * unresolved and generates no code.
+   * @param s the symbol of the variable
+   * @return the id of the variable node
+   */
+  private int variable(Symbol s){
+    return ast.add(Ast.VARIABLE, s.getKind().getSegment(), s.getOffset());
+  }
+
+  /**
+   * Parses the start of an if statement, up to the opening brace of its body
+   * @return the body of the statement
+   */
+  private OpenBlock ifStatement(){
+    Token t = lexer.getNextToken();
+    int ifNode = ast.add(Ast.IF);
+    if (t.getKind() == TokenKind.IF){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected if, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.LEFT_PAREN){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \"(\", got " + t.getLexeme() + ".");
+    }
+
+    ast.append(ifNode, expression());
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.RIGHT_PAREN){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \")\", got" + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.LEFT_BRACE){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \"{\", got " + t.getLexeme() + ".");
+    }
+
+    int block = ast.add(Ast.BLOCK);
+    ast.append(ifNode, block);
+    return new OpenBlock(OpenBlock.THEN, block, ifNode);
+  }
+
+  /**
+   * Parses the start of a while statement, up to the opening brace of its
+   * body
+   * @return the body of the statement
+   */
+  private OpenBlock whileStatement(){
+    Token t = lexer.getNextToken();
+    int whileNode = ast.add(Ast.WHILE);
+    if (t.getKind() == TokenKind.WHILE){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected while, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.LEFT_PAREN){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \"(\", got " + t.getLexeme() + ".");
+    }
+
+    ast.append(whileNode, expression());
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.RIGHT_PAREN){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \")\", got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.LEFT_BRACE){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \"{\", got " + t.getLexeme() + ".");
+    }
+
+    int block = ast.add(Ast.BLOCK);
+    ast.append(whileNode, block);
+    return new OpenBlock(OpenBlock.LOOP, block, whileNode);
+  }
+
+  private int doStatement(){
+    Token t = lexer.getNextToken();
+    int doNode = ast.add(Ast.DO);
+    if (t.getKind() == TokenKind.DO){
+      ast.append(doNode, subroutineCall());
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected do, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.SEMICOLON){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \";\", got " + t.getLexeme() + ".");
+    }
+
+    return doNode;
+  }
+
+  private int subroutineCall(){
+    Token t = lexer.getNextToken();
+    String subroutine = null;
+    int call;
+    if (t.getType() == Token.TokenTypes.id){
+      subroutine = t.getLexeme();
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected identifier, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.peekNextToken();
+    if (t.getKind() == TokenKind.DOT){
+      lexer.getNextToken();
+
+      t = lexer.getNextToken();
+      if (t.getType() == Token.TokenTypes.id){
+        subroutine = subroutine + "." + t.getLexeme();
+      }
+      else {
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected identifier, got " + t.getLexeme() + ".");
+      }
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.LEFT_PAREN){
+      call = ast.add(Ast.CALL, ast.addString(subroutine), 0);
+      expressionList(call);
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \"(\", got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.RIGHT_PAREN){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \")\", got " + t.getLexeme() + ".");
+    }
+
+    return call;
+  }
+
+  /**
+   * Parses the arguments of a subroutine call
+   * @param call the id of the call node that the arguments belong to
+   */
+  private void expressionList(int call){
+    Token t = lexer.peekNextToken();
+    if (startsArgument(t.getKind())) {
+
+      ast.append(call, expression());
+
+      t = lexer.peekNextToken();
+      while (t.getKind() == TokenKind.COMMA) {
+        lexer.getNextToken();
+        ast.append(call, expression());
+        t = lexer.peekNextToken();
+      }
+    }
+  }
+
+  /**
+   * Checks whether a token can start an expression in an argument list
+   * @param kind the kind of the token
+   * @return true if the token starts an argument
+   */
+  private static boolean startsArgument(int kind){
+    switch (kind){
+      case TokenKind.NUMBER:
+      case TokenKind.IDENTIFIER:
+      case TokenKind.LEFT_PAREN:
+      case TokenKind.STRING:
+      case TokenKind.TRUE:
+      case TokenKind.FALSE:
+      case TokenKind.NULL:
+      case TokenKind.THIS:
+      case TokenKind.MINUS:
+      case TokenKind.TILDE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Checks whether a token can start the value of a return statement
+   * @param kind the kind of the token
+   * @return true if the token starts a return value
+   */
+  private static boolean startsReturnValue(int kind){
+    switch (kind){
+      case TokenKind.MINUS:
+      case TokenKind.TILDE:
+      case TokenKind.THIS:
+      case TokenKind.NUMBER:
+      case TokenKind.IDENTIFIER:
+      case TokenKind.STRING:
+      case TokenKind.NULL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private int returnStatement(){
+    Token t = lexer.getNextToken();
+    int returnNode = ast.add(Ast.RETURN);
+    if (t.getKind() == TokenKind.RETURN){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected return, got " + t.getLexeme() + ".");
+    }
+
+    t = lexer.peekNextToken();
+    if (startsReturnValue(t.getKind())) {
+
+      identifierOperand = null;
+      identifierOperandSet = true;
+      ast.append(returnNode, expression());
+
+      //Check whether the value being returned matches the return type of the
+      // subroutine
+      if (identifierOperand != null){
+        //Lookup the identifier in the local symbol table first before
+        // checking whether it exists in the global scope
+        Symbol value = locals.resolve(identifierOperand);
+
+        if (value != null){
+          if (value.getType() == returnType){
+
+          }
+          else {
+            throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                    "Return type should be " + TypeRegistry.name(returnType) +
+                    ", not " + identifierOperand + ".");
+          }
+        }
+        else{
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Variable " + identifierOperand + " is not defined.");
+        }
+      }
+      else {
+        if (returnType != operandType){
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Return type should be " + TypeRegistry.name(returnType) +
+                  ", not " + TypeRegistry.name(operandType) + ".");
+        }
+      }
+    }
+
+    t = lexer.getNextToken();
+    if (t.getKind() == TokenKind.SEMICOLON){
+
+    }
+    else {
+      throw new ParserException("Error on line " + t.getLineNum() + ". " +
+              "Expected \";\", got " + t.getLexeme() + ".");
+    }
+
+    //Checks to see if there is any unreachable code after a return statement
+    // by taking advantage of the fact the next token should be a "}"
+    t = lexer.peekNextToken();
+    if (t != null){
+      if (t.getKind() != TokenKind.RIGHT_BRACE){
+        throw new ParserException("Error on line " + t.getLineNum() + ". Code" +
+                " after return statement is unreachable.");
+      }
+    }
+
+    return returnNode;
+  }
+
+  private int expression(){
+    return expression(LOWEST_PRECEDENCE);
+  }
+
+  /**
+   * Parses an expression by precedence climbing. Operands are read by
+   * factor(), and every operator binding at least as tightly as the given
+   * precedence is folded in from left to right, with its right hand side
+   * parsed at one level higher so that operators of equal precedence
+   * associate to the left.
+   * @param minPrecedence the lowest precedence of operator to consume
+   * @return the id of the expression node
+   */
+  private int expression(int minPrecedence){
+    int left = factor();
+
+    Token t = lexer.peekNextToken();
+    int precedence = PRECEDENCE[t.getKind()];
+    while (precedence >= minPrecedence){
+      t = lexer.getNextToken();
+      left = binary(t.getKind(), left, expression(precedence + 1));
+      t = lexer.peekNextToken();
+      precedence = PRECEDENCE[t.getKind()];
+    }
+
+    return left;
+  }
+
+  /**
+   * Creates a node applying a binary operator to two operands, or a constant
+   * if both operands are constant
+   * @param operator the token kind of the operator
+   * @param left the id of the left operand
+   * @param right the id of the right operand
+   * @return the id of the new node
+   */
+  private int binary(int operator, int left, int right){
+    if (ConstantFolder.ENABLED){
+      int value = ConstantFolder.binary(operator,
+              ConstantFolder.value(ast, left), ConstantFolder.value(ast, right));
+      if (value != ConstantFolder.NOT_CONSTANT){
+        return ast.add(Ast.CONSTANT, value, 0);
+      }
+    }
+
+    int node = ast.add(Ast.BINARY, operator, 0);
+    ast.append(node, left);
+    ast.append(node, right);
+    return node;
+  }
+
+  private int factor(){
+    Token t = lexer.peekNextToken();
+    int operator;
+    if (t.getKind() == TokenKind.MINUS || t.getKind() == TokenKind.TILDE){
+      t = lexer.getNextToken();
+      operator = t.getKind();
+    }
+    else {
+      return operand();
+    }
+
+    // Negates the operand, or applies the not operation to a boolean
+    // expression
+    int operand = operand();
+    if (ConstantFolder.ENABLED){
+      int value = ConstantFolder.unary(operator,
+              ConstantFolder.value(ast, operand));
+      if (value != ConstantFolder.NOT_CONSTANT){
+        return ast.add(Ast.CONSTANT, value, 0);
+      }
+    }
+
+    int node = ast.add(Ast.UNARY, operator, 0);
+    ast.append(node, operand);
+    return node;
+  }
+
+  private int operand(){
+    Token t = lexer.getNextToken();
+    switch (t.getKind()){
+      case TokenKind.NUMBER:
+        operandType = TypeRegistry.INT;
+        return ast.add(Ast.NUMBER, ast.addString(t.getLexeme()), 0);
+      case TokenKind.IDENTIFIER:
+        return identifierOperand(t);
+      case TokenKind.LEFT_PAREN:
+        int inner = expression();
+
+        t = lexer.getNextToken();
+        if (t.getKind() == TokenKind.RIGHT_PAREN){
+          return inner;
+        }
+        else {
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Expected \")\", got " + t.getLexeme() + ".");
+        }
+      case TokenKind.STRING:
+      case TokenKind.CHARACTER:
+        operandType = TypeRegistry.STRING;
+        return ast.add(Ast.STRING, ast.addString(t.getLexeme()), 0);
+      case TokenKind.TRUE:
+        operandType = TypeRegistry.BOOLEAN;
+        return ast.add(Ast.TRUE);
+      case TokenKind.FALSE:
+        operandType = TypeRegistry.BOOLEAN;
+        return ast.add(Ast.FALSE);
+      case TokenKind.NULL:
+        operandType = TypeRegistry.NULL;
+        return ast.add(Ast.NULL);
+      case TokenKind.THIS:
+        operandType = classType;
+        return ast.add(Ast.THIS);
+      default:
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected operator, got " + t.getLexeme() + ".");
+    }
+  }
+
+  /**
+   * Parses an operand that starts with an identifier, which may be a
+   * variable, an array element or a subroutine call
+   * @param t the identifier token, which has already been read
+   * @return the id of the operand node
+   */
+  private int identifierOperand(Token t){
+    identifierOperand = t.getLexeme();
+    identifierOperandSet = true;
+    String functionName = identifierOperand;
+
+    t = lexer.peekNextToken();
+    if (t.getKind() == TokenKind.DOT){
+      lexer.getNextToken();
+      t = lexer.peekNextToken();
+      if (t.getType() == Token.TokenTypes.id){
+        t = lexer.getNextToken();
+        functionName = functionName + "." + t.getLexeme();
+      }
+      else {
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected identifier, got " + t.getLexeme() + ".");
+      }
+    }
+
+    t = lexer.peekNextToken();
+    if (t.getKind() == TokenKind.LEFT_BRACKET){
+      int element = ast.add(Ast.ARRAY_ELEMENT);
+
+      Symbol s = locals.getSymbol(identifierOperand);
+      if (s != null){
+        ast.append(element, variable(s));
+      }
+      else {
+        s = getGlobal(identifierOperand);
+        if (s == null){
+          throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                  "Array is not defined.");
+        }
+        ast.append(element, ast.add(Ast.VARIABLE, Ast.STATIC, s.getOffset()));
+      }
+
+      lexer.getNextToken();
+      ast.append(element, expression());
+
+      t = lexer.getNextToken();
+      if (t.getKind() == TokenKind.RIGHT_BRACKET){
+        return element;
+      }
+      else {
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected \"]\", got " + t.getLexeme() + ".");
+      }
+    }
+
+    t = lexer.peekNextToken();
+    if (t.getKind() == TokenKind.LEFT_PAREN){
+      lexer.getNextToken();
+      int call = ast.add(Ast.CALL, ast.addString(functionName), 0);
+      expressionList(call);
+
+      t = lexer.getNextToken();
+      if (t.getKind() == TokenKind.RIGHT_PAREN){
+        return call;
+      }
+      else {
+        throw new ParserException("Error on line " + t.getLineNum() + ". " +
+                "Expected \")\", got " + t.getLexeme() + ".");
+      }
+    }
+
+    Symbol s = locals.getSymbol(identifierOperand);
+    if (s != null){
+      return variable(s);
+    }
+    s = getGlobal(identifierOperand);
+    if (s != null){
+      return ast.add(Ast.VARIABLE, Ast.STATIC, s.getOffset());
+    }
+    return ast.add(Ast.VARIABLE, Ast.UNRESOLVED, 0);
+  }
+
+  /**
+   * A block of statements whose closing brace has not been read yet
+   */
+  private static class OpenBlock {
+    /** The body of a subroutine */
+    private static final int BODY = 0;
+    /** The first block of an if statement */
+    private static final int THEN = 1;
+    /** The else block of an if statement */
+    private static final int ELSE = 2;
+    /** The body of a while statement */
+    private static final int LOOP = 3;
+
+    private final int role;
+    private final int node;
+    private final int statement;
+
+    private OpenBlock(int role, int node, int statement){
+      this.role = role;
+      this.node = node;
+      this.statement = statement;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Lets the lexer skip over the characters it has no interest in (runs of
+ * indentation, and the bodies of comments and string literals) sixteen at a
+ * time rather than one by one.
+ *
+ * The source is first narrowed to one byte per character, with anything
+ * outside ASCII becoming 0x80, so that positions are unchanged. The bytes
+ * are then read as pairs of little endian longs and every byte is compared
+ * with the characters being searched for at once, using the usual SIMD
+ * within a register tricks. Only ASCII characters are ever searched for, so
+ * the narrowing cannot create or hide a match.
+ *
+ * The scanner is only used if the jack.scanner system property is set to
+ * "swar", and otherwise the lexer examines every character itself. Skipping
+ * pays off in sources made up mostly of comments, but on ordinary code it
+ * is no faster, and narrowing the source copies the whole file.
+ *
+ * @author Adam Turner
+ */
+public class SwarScanner {
+
+  /** Whether lexers reading a whole file should use a SwarScanner */
+  public static final boolean ENABLED =
+          "swar".equals(System.getProperty("jack.scanner", "scalar"));
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+
+  private static final long SPACES = ONES * ' ';
+  private static final long TABS = ONES * '\t';
+  private static final long NEWLINES = ONES * '\n';
+  private static final long RETURNS = ONES * '\r';
+  private static final long STARS = ONES * '*';
+  private static final long QUOTES = ONES * '"';
+
+  /** Each search reads two longs per step */
+  private static final int STRIDE = 16;
+
+  private final ByteBuffer bytes;
+  private final int base;
+  private final int end;
+
+  /**
+   * Creates a new SwarScanner over part of a source buffer
+   * @param source the buffer holding the source text
+   * @param start the position of the first character that will be searched
+   * @param end the position just after the last character that will be
+   * searched
+   */
+  public SwarScanner(char[] source, int start, int end){
+    //The padding lets the last step read past the end, where the zero bytes
+    // never match a search (and any blank skip is cut short at the end)
+    byte[] narrow = new byte[end - start + STRIDE];
+    for (int i = start ; i < end ; ++i){
+      char c = source[i];
+      narrow[i - start] = c < 128 ? (byte) c : (byte) 0x80;
+    }
+
+    bytes = ByteBuffer.wrap(narrow).order(ByteOrder.LITTLE_ENDIAN);
+    base = start;
+    this.end = end;
+  }
+
+  /**
+   * Returns a scanner for the given part of a source buffer, or null if the
+   * scalar lexer has been selected
+   * @param source the buffer holding the source text
+   * @param start the position of the first character that will be searched
+   * @param end the position just after the last character that will be
+   * searched
+   * @return a scanner, or null
+   */
+  public static SwarScanner create(char[] source, int start, int end){
+    return ENABLED ? new SwarScanner(source, start, end) : null;
+  }
+
+  /**
+   * Finds the first character that is not a space or a tab
+   * @param from the position to start searching from
+   * @return the position of the character, or the end of the source
+   */
+  public int skipBlanks(int from){
+    for (int i = from - base ; i < end - base ; i += STRIDE){
+      long low = bytes.getLong(i);
+      long high = bytes.getLong(i + 8);
+      long lowMask = ~(matches(low, SPACES) | matches(low, TABS)) & HIGH_BITS;
+      long highMask = ~(matches(high, SPACES) | matches(high, TABS)) & HIGH_BITS;
+
+      if ((lowMask | highMask) != 0){
+        return position(i, lowMask, highMask);
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Finds the next line feed or carriage return, which ends a line comment
+   * @param from the position to start searching from
+   * @return the position of the character, or the end of the source
+   */
+  public int findLineEnd(int from){
+    return find(from, NEWLINES, RETURNS, RETURNS);
+  }
+
+  /**
+   * Finds the next star (which may close a block comment) or line break
+   * (which must be recorded)
+   * @param from the position to start searching from
+   * @return the position of the character, or the end of the source
+   */
+  public int findCommentBreak(int from){
+    return find(from, STARS, NEWLINES, RETURNS);
+  }
+
+  /**
+   * Finds the next double quote (which closes a string literal) or line
+   * break (which leaves it unterminated)
+   * @param from the position to start searching from
+   * @return the position of the character, or the end of the source
+   */
+  public int findStringBreak(int from){
+    return find(from, QUOTES, NEWLINES, RETURNS);
+  }
+
+  /**
+   * Finds the first character equal to any of three characters, each of
+   * which is given repeated in every byte of a long
+   * @param from the position to start searching from
+   * @param first the first character to search for
+   * @param second the second character to search for
+   * @param third the third character to search for
+   * @return the position of the character, or the end of the source
+   */
+  private int find(int from, long first, long second, long third){
+    for (int i = from - base ; i < end - base ; i += STRIDE){
+      long low = bytes.getLong(i);
+      long high = bytes.getLong(i + 8);
+      long lowMask = matches(low, first) | matches(low, second) |
+              matches(low, third);
+      long highMask = matches(high, first) | matches(high, second) |
+              matches(high, third);
+
+      if ((lowMask | highMask) != 0){
+        return position(i, lowMask, highMask);
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Converts the match masks of a step into a position in the source
+   * @param i the index of the first byte of the step
+   * @param lowMask the matches in the first eight bytes
+   * @param highMask the matches in the second eight bytes
+   * @return the position of the first match, which is no later than the end
+   * of the source
+   */
+  private int position(int i, long lowMask, long highMask){
+    int index = lowMask != 0 ? Long.numberOfTrailingZeros(lowMask) >>> 3 :
+            8 + (Long.numberOfTrailingZeros(highMask) >>> 3);
+    return Math.min(base + i + index, end);
+  }
+
+  /**
+   * Sets the top bit of every byte of the word that equals the corresponding
+   * byte of the pattern, and clears every other bit. Unlike the shorter
+   * has-zero-byte test this is exact, so the masks can be inverted.
+   * @param word eight bytes of source
+   * @param pattern the character being searched for, in every byte
+   * @return the mask of matching bytes
+   */
+  private static long matches(long word, long pattern){
+    long v = word ^ pattern;
+    return ~(((v & LOW_BITS) + LOW_BITS) | v | LOW_BITS);
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * The kinds of symbol that can be declared in a symbol table. Each kind
+ * knows the segment that a variable of that kind is read from and written
+ * to, so the parser can choose a segment without comparing strings.
+ *
+ * @author Adam Turner
+ */
+public enum SymbolKind {
+
+  CLASS(Ast.UNRESOLVED),
+  CONSTRUCTOR(Ast.UNRESOLVED),
+  FUNCTION(Ast.UNRESOLVED),
+  METHOD(Ast.UNRESOLVED),
+  STATIC(Ast.UNRESOLVED),
+  //Fields have always been accessed through the static segment
+  FIELD(Ast.STATIC),
+  ARGUMENT(Ast.ARGUMENT),
+  VAR(Ast.LOCAL);
+
+  private final int segment;
+  private final String lexeme;
+
+  SymbolKind(int segment){
+    this.segment = segment;
+    lexeme = name().toLowerCase();
+  }
+
+  /**
+   * Returns the segment of a variable of this kind
+   * @return one of the Ast segments, or Ast.UNRESOLVED if a symbol of this
+   * kind cannot be read or written
+   */
+  public int getSegment() {
+    return segment;
+  }
+
+  /**
+   * Returns the kind with the given name, as written in libs.txt
+   * @param lexeme the name of the kind, such as "function"
+   * @return the kind
+   */
+  public static SymbolKind of(String lexeme){
+    return valueOf(lexeme.toUpperCase());
+  }
+
+  /**
+   * Returns the name of the kind as it is written in Jack
+   * @return the name in lower case
+   */
+  @Override
+  public String toString(){
+    return lexeme;
+  }
+}
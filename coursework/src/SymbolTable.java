@@ -1,5 +1,13 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A class to represent a symbol within the symbol table
@@ -9,19 +17,20 @@ import java.util.List;
 class Symbol{
 
   private String symbolName;
-  private String type;
-  private String kind;
-  private String belongs;
+  private int type;
+  private SymbolKind kind;
+  private int belongs;
   private int offset;
 
   /**
    * Creates a new symbol object with the supplied parameters
    * @param n the name of the symbol
-   * @param t the type that the symbol represents
+   * @param t the id of the type that the symbol represents
    * @param k the kind that the symbol represents
+   * @param b the id of the class which the symbol belongs to
    * @param o the offset of the symbol in memory
    */
-  public Symbol(String n, String t, String k, String b, int o){
+  public Symbol(String n, int t, SymbolKind k, int b, int o){
     symbolName = n;
     type = t;
     kind = k;
@@ -38,10 +47,10 @@ class Symbol{
   }
 
   /**
-   * Returns the type of the symbol
+   * Returns the id of the type of the symbol in the TypeRegistry
    * @return type
    */
-  public String getType() {
+  public int getType() {
     return type;
   }
 
@@ -49,15 +58,16 @@ class Symbol{
    * Returns the kind of the symbol
    * @return kind
    */
-  public String getKind() {
+  public SymbolKind getKind() {
     return kind;
   }
 
   /**
-   * Returns the class which the symbol belongs to
-   * @return belongs
+   * Returns the id of the class which the symbol belongs to in the
+   * TypeRegistry
+   * @return belongs, or TypeRegistry.NONE
    */
-  public String getBelongs() {
+  public int getBelongs() {
     return belongs;
   }
 
@@ -75,41 +85,110 @@ class Symbol{
    */
   @Override
   public String toString(){
-    return symbolName + ", type: " + type + ", kind: " + kind + ", offset = " + offset + ", class = " + belongs;
+    return symbolName + ", type: " + TypeRegistry.name(type) + ", kind: " +
+            kind + ", offset = " + offset + ", class = " +
+            TypeRegistry.name(belongs);
   }
 }
 
 
 /**
- * A class to represent a symbol table in the for the JACK language
+ * A class to represent a symbol table in the for the JACK language. Tables
+ * can be nested, so that a subroutine table sits inside the global table and
+ * names it does not declare are looked up there.
+ *
+ * Symbols are kept in insertion order, along with a hash index from each
+ * name to the first symbol declared with it, so a lookup is a single probe.
+ * A name can be declared more than once (by different classes), and as
+ * when the list was scanned it is always the first of these that is found.
+ *
+ * A table can also be layered over a base table, which then behaves as if
+ * its symbols had been inserted first. The declarations of the standard
+ * library are read once into a base table that is never changed, and each
+ * parser layers its global table over it, so only the symbols of the class
+ * being compiled are inserted per file.
  *
  * @author Adam Turner
  */
 public class SymbolTable {
 
+  /** The file declaring the standard library, which is read from the
+   * classpath or else from the working directory */
+  private static final String LIBRARY_FILE = "libs.txt";
+
+  private static SymbolTable library;
+
   private List<Symbol> table;
+  private Map<String, Integer> index;
   private int offsetCount;
   private String scope;
+  private SymbolTable parent;
+  private int visibleInParent;
+  private SymbolTable base;
+  private boolean frozen;
 
   /**
    * Creates a new SymbolTable object initialising an emptry list of symbols
    * and setting the global offset to 0
    */
   public SymbolTable(String s){
+    this(s, null, 0);
+  }
+
+  /**
+   * Creates a new, empty SymbolTable nested inside another
+   * @param s the scope of the table
+   * @param parent the enclosing table, or null
+   * @param visibleInParent the number of symbols in the enclosing table that
+   * can be seen from this one, normally those it held when this table was
+   * created
+   */
+  public SymbolTable(String s, SymbolTable parent, int visibleInParent){
     table = new ArrayList<>();
+    index = new HashMap<>();
     offsetCount = 0;
     scope = s;
+    this.parent = parent;
+    this.visibleInParent = visibleInParent;
+  }
+
+  /**
+   * Empties the table so that it can be used again for another scope,
+   * keeping the space it has already allocated
+   * @param s the scope of the table
+   * @param parent the enclosing table, or null
+   * @param visibleInParent the number of symbols in the enclosing table that
+   * can be seen from this one
+   */
+  public void reset(String s, SymbolTable parent, int visibleInParent){
+    if (frozen){
+      throw new IllegalStateException("Symbol table " + scope + " cannot " +
+              "be changed.");
+    }
+    table.clear();
+    index.clear();
+    offsetCount = 0;
+    scope = s;
+    this.parent = parent;
+    this.visibleInParent = visibleInParent;
+    base = null;
   }
 
   /**
    * Inserts a new symbol into the symbol table
    * @param name the name of the symbol
-   * @param type the type of the symbol
+   * @param type the id of the type of the symbol
    * @param kind the kind of the symbol
+   * @param belong the id of the class which the symbol belongs to
    */
-  public void insert(String name, String type, String kind, String  belong){
+  public void insert(String name, int type, SymbolKind kind, int belong){
+    if (frozen){
+      throw new IllegalStateException("Symbol table " + scope + " cannot " +
+              "be changed.");
+    }
     Symbol symbol = new Symbol(name, type, kind, belong, offsetCount);
     table.add(symbol);
+    index.putIfAbsent(name, table.size() - 1);
     offsetCount++;
   }
 
@@ -120,12 +199,7 @@ public class SymbolTable {
    * false
    */
   public boolean lookUp(String name){
-    for (Symbol s : table){
-      if (s.getSymbolName().equals(name)){
-        return true;
-      }
-    }
-    return false;
+    return getSymbol(name) != null;
   }
 
   /**
@@ -135,12 +209,57 @@ public class SymbolTable {
    * @return the requested symbol if it exists, else returns null
    */
   public Symbol getSymbol(String name){
-    for (Symbol s : table){
-      if (s.getSymbolName().equals(name)){
+    return getSymbol(name, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the symbol that possesses the given name if it is one of the
+   * first few symbols in the table, ignoring any inserted after them
+   * @param name the name of the symbol to be retrieved
+   * @param visible the number of symbols to search
+   * @return the requested symbol if it exists, else returns null
+   */
+  public Symbol getSymbol(String name, int visible){
+    //The symbols of the base come before any in this table
+    if (base != null){
+      Symbol s = base.getSymbol(name, visible);
+      if (s != null){
         return s;
       }
+      visible -= base.size();
     }
 
+    //Only the first symbol with a name is indexed, and any later one was
+    // inserted after it, so if the first is hidden they all are
+    Integer position = index.get(name);
+    return position != null && position < visible ? table.get(position) :
+            null;
+  }
+
+  /**
+   * Returns the symbol that a name refers to from this scope: the one in
+   * this table if there is one, and otherwise the one found by resolving
+   * the name in the enclosing tables
+   * @param name the name of the symbol to be retrieved
+   * @return the requested symbol if it exists, else returns null
+   */
+  public Symbol resolve(String name){
+    Symbol s = getSymbol(name);
+    return s != null ? s : resolveOuter(name);
+  }
+
+  /**
+   * Resolves a name in the tables enclosing this one, skipping this table
+   * @param name the name of the symbol to be retrieved
+   * @return the requested symbol if it exists, else returns null
+   */
+  public Symbol resolveOuter(String name){
+    for (SymbolTable t = this ; t.parent != null ; t = t.parent){
+      Symbol s = t.parent.getSymbol(name, t.visibleInParent);
+      if (s != null){
+        return s;
+      }
+    }
     return null;
   }
 
@@ -148,38 +267,88 @@ public class SymbolTable {
    * Checks to see whether the given symbol already exists within the scope
    * of the current symbol table
    * @param name the name of the symbol to be checked
-   * @param belongsTo the class which the symbol belongs to
+   * @param belongsTo the id of the class which the symbol belongs to
    * @return true if the symbol already exists in this class, else false
    */
-  public boolean checkDuplicate(String name, String belongsTo){
-    if (this.lookUp(name)){
-      Symbol s = this.getSymbol(name);
+  public boolean checkDuplicate(String name, int belongsTo){
+    Symbol s = getSymbol(name);
+    return s != null && s.getBelongs() == belongsTo;
+  }
 
-      if (belongsTo.equals(s.getBelongs())){
-        return true;
-      }
+  /**
+   * Returns a new, empty table layered over this one. Symbols inserted into
+   * the new table are numbered on from those in this one, and are found
+   * only if this table does not have a symbol of the same name.
+   * @param s the scope of the new table
+   * @return the new table
+   */
+  public SymbolTable overlay(String s){
+    SymbolTable overlay = new SymbolTable(s);
+    overlay.base = this;
+    overlay.offsetCount = offsetCount;
+    return overlay;
+  }
 
-      return false;
+  /**
+   * Returns the table holding the declarations of the standard library,
+   * reading it the first time it is needed. The table is shared and cannot
+   * be changed, so should be used through overlay().
+   * @return the library table
+   * @throws IOException thrown if the library declarations cannot be found
+   * or read
+   */
+  public static synchronized SymbolTable library() throws IOException{
+    if (library == null){
+      library = readLibrary();
+      library.frozen = true;
+    }
+    return library;
+  }
+
+  /**
+   * Reads the declarations of the standard library into a new table. Each
+   * line of the file holds the name, type, kind and class of a symbol,
+   * separated by commas, with a class of null for symbols belonging to no
+   * class.
+   * @return the new table
+   * @throws IOException thrown if the library declarations cannot be found
+   * or read
+   */
+  static SymbolTable readLibrary() throws IOException{
+    InputStream in = SymbolTable.class.getResourceAsStream("/" + LIBRARY_FILE);
+    if (in == null){
+      in = new FileInputStream(LIBRARY_FILE);
     }
 
-    return false;
+    SymbolTable table = new SymbolTable("library");
+    try (BufferedReader input = new BufferedReader(new InputStreamReader(in,
+            StandardCharsets.UTF_8))){
+      String line;
+      while ((line = input.readLine()) != null){
+        if (line.isEmpty()){
+          continue;
+        }
+        String[] entry = line.split(",");
+        int belongs = entry[3].equals("null") ? TypeRegistry.NONE :
+                TypeRegistry.id(entry[3]);
+        table.insert(entry[0], TypeRegistry.id(entry[1]),
+                SymbolKind.of(entry[2]), belongs);
+      }
+    }
+    return table;
   }
 
   /**
-   * A helper function that will add a new table to the a list of symbol
-   * tables, and return the index of this new table in the list (i.e. the
-   * last element of the list)
-   * @param tables a list of symbol table objects
-   * @param s the scope of the symbol table to be added
-   * @return the index of the last element of the list
+   * Returns the number of symbols in the table, including those of its base
+   * @return the number of symbols
    */
-  public static int addTable(List<SymbolTable> tables, String s){
-    tables.add(new SymbolTable(s));
-    return tables.size() - 1;
+  public int size(){
+    return (base != null ? base.size() : 0) + table.size();
   }
 
   /**
-   * Returns the list of symbols in the table
+   * Returns the list of symbols inserted into the table, not including
+   * those of its base
    * @return table
    */
   public List<Symbol> getTable() {
@@ -202,10 +371,22 @@ public class SymbolTable {
     return scope;
   }
 
+  /**
+   * Returns the number of symbols in the enclosing table that can be seen
+   * from this one
+   * @return visibleInParent
+   */
+  public int getVisibleInParent() {
+    return visibleInParent;
+  }
+
   /**
    * Prints all the symbols currently contained within the symbol table
    */
   public void printTable(){
+    if (base != null){
+      base.printTable();
+    }
     for (Symbol s : table){
       System.out.println(s.toString());
     }
@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/**
+ * A compact store for a whole stream of tokens. Rather than one object per
+ * token, the type, kind, packed line/offset position and length of every
+ * token are held in parallel arrays, and the lexeme of a token is only copied
+ * out of the source text when it is asked for.
+ *
+ * @author Adam Turner
+ */
+public class TokenBuffer {
+
+  private static final Token.TokenTypes[] TYPES = Token.TokenTypes.values();
+
+  private char[] source;
+  private int sourceLength;
+  private byte[] types;
+  private byte[] kinds;
+  private long[] positions;
+  private int[] lengths;
+  private int size;
+  private LexemeTable lexemes;
+
+  /**
+   * Creates a new, empty TokenBuffer for tokens read from the given source
+   * @param source the buffer holding the text that the tokens are taken from
+   * @param sourceLength the number of characters of text in the buffer
+   * @param capacity the number of tokens to make room for initially
+   */
+  public TokenBuffer(char[] source, int sourceLength, int capacity){
+    this.source = source;
+    this.sourceLength = sourceLength;
+    capacity = Math.max(capacity, 16);
+    types = new byte[capacity];
+    kinds = new byte[capacity];
+    positions = new long[capacity];
+    lengths = new int[capacity];
+    size = 0;
+    lexemes = new LexemeTable();
+  }
+
+  /**
+   * Returns a buffer over the same tokens as this one, but with a lexeme
+   * table of its own, so that lexemes can be read from it on another thread.
+   * Tokens must not be added to either buffer afterwards.
+   * @return the view
+   */
+  public TokenBuffer view(){
+    TokenBuffer view = new TokenBuffer(source, sourceLength, 0);
+    view.types = types;
+    view.kinds = kinds;
+    view.positions = positions;
+    view.lengths = lengths;
+    view.size = size;
+    return view;
+  }
+
+  /**
+   * Appends a token to the end of the buffer
+   * @param type the type of the token
+   * @param kind the kind of the token, one of the codes in TokenKind
+   * @param offset the position of the first character of the token in the
+   * source
+   * @param length the number of characters in the token
+   * @param line the line number that the token was found on
+   */
+  public void add(Token.TokenTypes type, int kind, int offset, int length,
+                  int line){
+    ensureCapacity(size + 1);
+    types[size] = (byte) type.ordinal();
+    kinds[size] = (byte) kind;
+    positions[size] = Token.pack(line, offset);
+    lengths[size] = length;
+    size++;
+  }
+
+  /**
+   * Appends a run of tokens from another buffer whose source text has moved.
+   * Each copied token has its offset and line number shifted by the given
+   * amounts.
+   * @param from the buffer to copy tokens from
+   * @param start the index of the first token to copy
+   * @param count the number of tokens to copy
+   * @param offsetDelta the amount to add to the offset of every token
+   * @param lineDelta the amount to add to the line number of every token
+   */
+  public void addShifted(TokenBuffer from, int start, int count,
+                         int offsetDelta, int lineDelta){
+    ensureCapacity(size + count);
+
+    System.arraycopy(from.types, start, types, size, count);
+    System.arraycopy(from.kinds, start, kinds, size, count);
+    System.arraycopy(from.lengths, start, lengths, size, count);
+    //The offset never leaves the range of the lower 32 bits, so both parts
+    // of a packed position can be moved with a single addition
+    long shift = ((long) lineDelta << 32) + offsetDelta;
+    for (int i = 0 ; i < count ; ++i){
+      positions[size + i] = from.positions[start + i] + shift;
+    }
+    size += count;
+  }
+
+  /**
+   * Removes every token from the given index onwards
+   * @param newSize the number of tokens to keep
+   */
+  public void truncate(int newSize){
+    size = Math.min(size, newSize);
+  }
+
+  private void ensureCapacity(int capacity){
+    if (capacity > types.length){
+      capacity = Math.max(capacity, types.length + (types.length >> 1));
+      types = Arrays.copyOf(types, capacity);
+      kinds = Arrays.copyOf(kinds, capacity);
+      positions = Arrays.copyOf(positions, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+    }
+  }
+
+  /**
+   * Returns the number of tokens in the buffer
+   * @return size
+   */
+  public int size(){
+    return size;
+  }
+
+  /**
+   * Returns the source text that the tokens were read from
+   * @return source
+   */
+  public char[] getSource(){
+    return source;
+  }
+
+  /**
+   * Returns the number of characters of source text, which may be fewer
+   * than the length of the source buffer
+   * @return sourceLength
+   */
+  public int getSourceLength(){
+    return sourceLength;
+  }
+
+  /**
+   * Returns the type of the token at the given index
+   * @param i the index of the token
+   * @return the type of the token
+   */
+  public Token.TokenTypes getType(int i){
+    return TYPES[types[i]];
+  }
+
+  /**
+   * Returns the kind of the token at the given index
+   * @param i the index of the token
+   * @return the kind of the token, one of the codes in TokenKind
+   */
+  public int getKind(int i){
+    return kinds[i];
+  }
+
+  /**
+   * Returns the position in the source of the first character of the token
+   * at the given index
+   * @param i the index of the token
+   * @return the offset of the token
+   */
+  public int getOffset(int i){
+    return Token.offsetOf(positions[i]);
+  }
+
+  /**
+   * Returns the number of characters in the token at the given index
+   * @param i the index of the token
+   * @return the length of the token
+   */
+  public int getLength(int i){
+    return lengths[i];
+  }
+
+  /**
+   * Returns the line number that the token at the given index was found on
+   * @param i the index of the token
+   * @return the line number of the token
+   */
+  public int getLineNum(int i){
+    return Token.lineOf(positions[i]);
+  }
+
+  /**
+   * Returns the line number and offset of the token at the given index,
+   * packed into a single value
+   * @param i the index of the token
+   * @return the packed position of the token
+   */
+  public long getPosition(int i){
+    return positions[i];
+  }
+
+  /**
+   * Returns the lexeme of the token at the given index. Keywords and symbols
+   * share one string each, and any other lexeme is only created the first
+   * time its text is asked for.
+   * @param i the index of the token
+   * @return the lexeme of the token
+   */
+  public String getLexeme(int i){
+    String lexeme = TokenKind.lexeme(kinds[i]);
+    if (lexeme == null){
+      lexeme = lexemes.intern(source, Token.offsetOf(positions[i]), lengths[i]);
+    }
+    return lexeme;
+  }
+
+  /**
+   * Returns a Token for the entry at the given index. The lexeme of the
+   * token is not created until it is first used.
+   * @param i the index of the token
+   * @return the token
+   */
+  public Token getToken(int i){
+    return new Token(this, i);
+  }
+}
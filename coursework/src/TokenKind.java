@@ -0,0 +1,126 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Integer codes for the kinds of token. Every keyword, operator and
+ * punctuator has a kind of its own, while identifiers, numbers, strings and
+ * characters share one kind each, so the parser can decide what to do with a
+ * token by switching on its kind rather than comparing its lexeme.
+ *
+ * Kinds fit in a byte, so they can be stored compactly by a TokenBuffer.
+ *
+ * @author Adam Turner
+ */
+public final class TokenKind {
+
+  public static final int IDENTIFIER = 0;
+  public static final int NUMBER = 1;
+  public static final int STRING = 2;
+  public static final int CHARACTER = 3;
+
+  // Keywords
+  public static final int CLASS = 4;
+  public static final int CONSTRUCTOR = 5;
+  public static final int FUNCTION = 6;
+  public static final int METHOD = 7;
+  public static final int FIELD = 8;
+  public static final int STATIC = 9;
+  public static final int VAR = 10;
+  public static final int INT = 11;
+  public static final int CHAR = 12;
+  public static final int BOOLEAN = 13;
+  public static final int VOID = 14;
+  public static final int TRUE = 15;
+  public static final int FALSE = 16;
+  public static final int NULL = 17;
+  public static final int THIS = 18;
+  public static final int LET = 19;
+  public static final int DO = 20;
+  public static final int IF = 21;
+  public static final int ELSE = 22;
+  public static final int WHILE = 23;
+  public static final int RETURN = 24;
+
+  // Punctuators
+  public static final int LEFT_PAREN = 25;
+  public static final int RIGHT_PAREN = 26;
+  public static final int LEFT_BRACE = 27;
+  public static final int RIGHT_BRACE = 28;
+  public static final int LEFT_BRACKET = 29;
+  public static final int RIGHT_BRACKET = 30;
+  public static final int DOT = 31;
+  public static final int COMMA = 32;
+  public static final int SEMICOLON = 33;
+
+  // Operators
+  public static final int PLUS = 34;
+  public static final int MINUS = 35;
+  public static final int STAR = 36;
+  public static final int SLASH = 37;
+  public static final int AND = 38;
+  public static final int OR = 39;
+  public static final int LESS = 40;
+  public static final int GREATER = 41;
+  public static final int ASSIGN = 42;
+  public static final int TILDE = 43;
+  public static final int EQUALS = 44;
+  public static final int LESS_EQUAL = 45;
+  public static final int GREATER_EQUAL = 46;
+  public static final int NOT_EQUAL = 47;
+
+  public static final int COUNT = 48;
+
+  /** The fixed lexeme of each kind, or null for kinds whose text varies */
+  private static final String[] LEXEMES = {
+          null, null, null, null,
+          "class", "constructor", "function", "method", "field", "static",
+          "var", "int", "char", "boolean", "void", "true", "false", "null",
+          "this", "let", "do", "if", "else", "while", "return",
+          "(", ")", "{", "}", "[", "]", ".", ",", ";",
+          "+", "-", "*", "/", "&", "|", "<", ">", "=", "~", "==", "<=", ">=",
+          "~="
+  };
+
+  private static final Map<String, Integer> KINDS = new HashMap<>();
+
+  static {
+    for (int kind = CLASS ; kind < COUNT ; ++kind){
+      KINDS.put(LEXEMES[kind], kind);
+    }
+  }
+
+  private TokenKind(){
+  }
+
+  /**
+   * Returns the lexeme shared by every token of the given kind. These are
+   * string literals, and so always the same instance.
+   * @param kind a token kind
+   * @return the lexeme, or null for identifiers, numbers, strings and
+   * characters
+   */
+  public static String lexeme(int kind){
+    return LEXEMES[kind];
+  }
+
+  /**
+   * Works out the kind of a token that was not produced by the lexer. This
+   * is a hash lookup, so the lexer never uses it.
+   * @param lexeme the text of the token
+   * @param type the type of the token
+   * @return the kind of the token
+   */
+  public static int of(String lexeme, Token.TokenTypes type){
+    switch (type){
+      case num:
+        return NUMBER;
+      case string:
+        return STRING;
+      case character:
+        return CHARACTER;
+      default:
+        Integer kind = KINDS.get(lexeme);
+        return kind != null ? kind : IDENTIFIER;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the names of types, giving each an int id, so that symbols can
+ * store their type and owning class as ints and types can be compared with
+ * ==. Two names have the same id exactly when they are equal.
+ *
+ * Ids are shared by every parser in the JVM. Looking up a name that has
+ * already been registered does not lock, so compilers running on separate
+ * threads can register and compare types at the same time.
+ *
+ * @author Adam Turner
+ */
+public final class TypeRegistry {
+
+  /** The id of no type, such as the owning class of a library class */
+  public static final int NONE = -1;
+
+  public static final int INT = 0;
+  public static final int CHAR = 1;
+  public static final int BOOLEAN = 2;
+  public static final int VOID = 3;
+  /** The type given to class symbols */
+  public static final int CLASS = 4;
+  /** The type of string and character constants */
+  public static final int STRING = 5;
+  /** The type of the null constant */
+  public static final int NULL = 6;
+
+  private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+  /** The name of each type, indexed by id. Guarded by itself. */
+  private static final List<String> NAMES = new ArrayList<>();
+
+  static {
+    for (String name : new String[]{"int", "char", "boolean", "void", "None",
+            "string", "null"}){
+      id(name);
+    }
+  }
+
+  private TypeRegistry(){
+  }
+
+  /**
+   * Returns the id of a type, registering it if this is the first time its
+   * name has been seen
+   * @param name the name of the type, or null for no type
+   * @return the id of the type
+   */
+  public static int id(String name){
+    if (name == null){
+      return NONE;
+    }
+
+    Integer id = IDS.get(name);
+    if (id != null){
+      return id;
+    }
+
+    synchronized (NAMES){
+      id = IDS.get(name);
+      if (id == null){
+        id = NAMES.size();
+        NAMES.add(name);
+        IDS.put(name, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Returns the id of a type without registering it
+   * @param name the name of the type
+   * @return the id of the type, or NONE if no type has the name
+   */
+  public static int find(String name){
+    Integer id = IDS.get(name);
+    return id != null ? id : NONE;
+  }
+
+  /**
+   * Returns the name of a type
+   * @param id the id of the type
+   * @return the name of the type, or null for NONE
+   */
+  public static String name(int id){
+    if (id == NONE){
+      return null;
+    }
+
+    synchronized (NAMES){
+      return NAMES.get(id);
+    }
+  }
+}
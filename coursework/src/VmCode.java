@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sequence of VM instructions, such as the code of one subroutine.
+ *
+ * Instructions are stored in parallel int arrays rather than as text. Each
+ * has an opcode, a segment for push and pop, an operand and a count. The
+ * operand is the index or value of a push or pop, or the id of the name of
+ * a label or function. The count is the number of arguments of a call, or
+ * of local variables of a function. Names are kept once in a string table.
+ * Text is only produced when the code is written out, so later passes can
+ * inspect and rewrite instructions by comparing ints.
+ *
+ * @author Adam Turner
+ */
+public class VmCode {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final int SEGMENT_SHIFT = 8;
+  private static final int OPCODE_MASK = (1 << SEGMENT_SHIFT) - 1;
+  /** Marks a push of a constant whose lexeme could not be held as an int
+   * operand without changing how it is written, such as 007. The operand is
+   * then the id of the lexeme in the string table. */
+  private static final int LITERAL = 1 << 16;
+
+  private int[] codes;
+  private int[] operands;
+  private int[] counts;
+  private int size;
+
+  private List<String> names;
+  private Map<String, Integer> nameIds;
+
+  /**
+   * Creates a new, empty VmCode
+   */
+  public VmCode(){
+    codes = new int[INITIAL_CAPACITY];
+    operands = new int[INITIAL_CAPACITY];
+    counts = new int[INITIAL_CAPACITY];
+    size = 0;
+    names = new ArrayList<>();
+    nameIds = new HashMap<>();
+  }
+
+  /**
+   * Appends a push command
+   * @param segment the segment to push from
+   * @param index the index in the segment, or the value of a constant
+   */
+  public void push(VmSegment segment, int index){
+    add(VmOpcode.PUSH.ordinal() | segment.ordinal() << SEGMENT_SHIFT, index, 0);
+  }
+
+  /**
+   * Appends a push of an integer constant, written exactly as in the source
+   * @param lexeme the digits of the constant
+   */
+  public void pushConstant(String lexeme){
+    //Only a lexeme that an int prints back as unchanged is stored as a value
+    boolean canonical = lexeme.length() < 10 &&
+            (lexeme.length() == 1 || lexeme.charAt(0) != '0');
+    if (canonical){
+      push(VmSegment.CONSTANT, Integer.parseInt(lexeme));
+    }
+    else {
+      add(VmOpcode.PUSH.ordinal() |
+              VmSegment.CONSTANT.ordinal() << SEGMENT_SHIFT | LITERAL,
+              name(lexeme), 0);
+    }
+  }
+
+  /**
+   * Appends a pop command
+   * @param segment the segment to pop to
+   * @param index the index in the segment
+   */
+  public void pop(VmSegment segment, int index){
+    add(VmOpcode.POP.ordinal() | segment.ordinal() << SEGMENT_SHIFT, index, 0);
+  }
+
+  /**
+   * Appends a command that takes no operands, such as an arithmetic command
+   * or return
+   * @param opcode the command
+   */
+  public void command(VmOpcode opcode){
+    add(opcode.ordinal(), 0, 0);
+  }
+
+  /**
+   * Appends a label, goto or if-goto command
+   * @param opcode the command
+   * @param label the name of the label
+   */
+  public void label(VmOpcode opcode, String label){
+    add(opcode.ordinal(), name(label), 0);
+  }
+
+  /**
+   * Appends a function declaration
+   * @param function the full name of the function
+   * @param locals the number of local variables
+   */
+  public void function(String function, int locals){
+    add(VmOpcode.FUNCTION.ordinal(), name(function), locals);
+  }
+
+  /**
+   * Appends a call
+   * @param function the full name of the function
+   * @param arguments the number of arguments
+   */
+  public void call(String function, int arguments){
+    add(VmOpcode.CALL.ordinal(), name(function), arguments);
+  }
+
+  /**
+   * Appends a copy of an instruction from some other code
+   * @param from the code holding the instruction
+   * @param i the index of the instruction
+   */
+  public void append(VmCode from, int i){
+    int operand = from.operands[i];
+    switch (from.getOpcode(i)){
+      case PUSH:
+      case POP:
+        if (from.isLiteral(i)){
+          operand = name(from.names.get(operand));
+        }
+        break;
+      case LABEL:
+      case GOTO:
+      case IF_GOTO:
+      case FUNCTION:
+      case CALL:
+        operand = name(from.names.get(operand));
+        break;
+      default:
+        break;
+    }
+    add(from.codes[i], operand, from.counts[i]);
+  }
+
+  /**
+   * Removes every instruction from the given index onwards
+   * @param size the number of instructions to keep
+   */
+  public void truncate(int size){
+    this.size = size;
+  }
+
+  /**
+   * Checks whether an instruction is a push of the given constant
+   * @param i the index of the instruction
+   * @param value the value of the constant
+   * @return true if the instruction pushes the constant
+   */
+  public boolean isConstant(int i, int value){
+    return codes[i] == (VmOpcode.PUSH.ordinal() |
+            VmSegment.CONSTANT.ordinal() << SEGMENT_SHIFT) &&
+            operands[i] == value;
+  }
+
+  /**
+   * Checks whether two instructions access the same place in memory, so a
+   * push and a pop of the same segment and index
+   * @param i the index of the first instruction
+   * @param j the index of the second instruction
+   * @return true if both have the same segment and index
+   */
+  public boolean isSameLocation(int i, int j){
+    return getSegment(i) != null && !isLiteral(i) && !isLiteral(j) &&
+            getSegment(i) == getSegment(j) && operands[i] == operands[j];
+  }
+
+  private void add(int code, int operand, int count){
+    if (size == codes.length){
+      int capacity = size * 2;
+      codes = Arrays.copyOf(codes, capacity);
+      operands = Arrays.copyOf(operands, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+    }
+
+    codes[size] = code;
+    operands[size] = operand;
+    counts[size] = count;
+    size++;
+  }
+
+  /**
+   * Returns the id of a name in the string table, adding it if it is not
+   * there already
+   * @param name the name
+   * @return the id of the name
+   */
+  public int name(String name){
+    Integer id = nameIds.get(name);
+    if (id == null){
+      id = names.size();
+      names.add(name);
+      nameIds.put(name, id);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the name with the given id
+   * @param id the id of the name
+   * @return the name
+   */
+  public String getName(int id){
+    return names.get(id);
+  }
+
+  /**
+   * Returns the number of instructions
+   * @return size
+   */
+  public int size(){
+    return size;
+  }
+
+  /**
+   * Returns the command of an instruction
+   * @param i the index of the instruction
+   * @return the opcode
+   */
+  public VmOpcode getOpcode(int i){
+    return VmOpcode.of(codes[i] & OPCODE_MASK);
+  }
+
+  /**
+   * Returns the segment of a push or pop
+   * @param i the index of the instruction
+   * @return the segment, or null if the instruction is not a push or pop
+   */
+  public VmSegment getSegment(int i){
+    VmOpcode opcode = getOpcode(i);
+    if (opcode != VmOpcode.PUSH && opcode != VmOpcode.POP){
+      return null;
+    }
+    return VmSegment.of((codes[i] & ~LITERAL) >>> SEGMENT_SHIFT);
+  }
+
+  /**
+   * Returns the operand of an instruction: the index or value of a push or
+   * pop, or the id of the name of a label or function
+   * @param i the index of the instruction
+   * @return the operand
+   */
+  public int getOperand(int i){
+    return operands[i];
+  }
+
+  /**
+   * Returns the number of arguments of a call, or of local variables of a
+   * function
+   * @param i the index of the instruction
+   * @return the count
+   */
+  public int getCount(int i){
+    return counts[i];
+  }
+
+  /**
+   * Checks whether an instruction is a push of a constant whose lexeme is
+   * kept as text, in which case its operand is the id of the lexeme
+   * @param i the index of the instruction
+   * @return true if the constant is kept as text
+   */
+  public boolean isLiteral(int i){
+    return (codes[i] & LITERAL) != 0;
+  }
+
+  /**
+   * Appends the text of an instruction, without a line separator
+   * @param i the index of the instruction
+   * @param out the builder to append to
+   */
+  public void render(int i, StringBuilder out){
+    VmOpcode opcode = getOpcode(i);
+    out.append(opcode);
+    switch (opcode){
+      case PUSH:
+      case POP:
+        out.append(' ').append(getSegment(i)).append(' ');
+        if (isLiteral(i)){
+          out.append(names.get(operands[i]));
+        }
+        else {
+          out.append(operands[i]);
+        }
+        break;
+      case LABEL:
+      case GOTO:
+      case IF_GOTO:
+        out.append(' ').append(names.get(operands[i]));
+        break;
+      case FUNCTION:
+      case CALL:
+        out.append(' ').append(names.get(operands[i])).append(' ')
+                .append(counts[i]);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Returns the text of every instruction
+   * @return the lines of VM code
+   */
+  public List<String> toLines(){
+    List<String> lines = new ArrayList<>(size);
+    StringBuilder line = new StringBuilder();
+    for (int i = 0 ; i < size ; ++i){
+      line.setLength(0);
+      render(i, line);
+      lines.add(line.toString());
+    }
+    return lines;
+  }
+}
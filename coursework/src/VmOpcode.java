@@ -0,0 +1,51 @@
+/**
+ * The commands of the VM language.
+ *
+ * @author Adam Turner
+ */
+public enum VmOpcode {
+
+  PUSH("push"),
+  POP("pop"),
+  ADD("add"),
+  SUB("sub"),
+  NEG("neg"),
+  EQ("eq"),
+  GT("gt"),
+  LT("lt"),
+  AND("and"),
+  OR("or"),
+  NOT("not"),
+  LABEL("label"),
+  GOTO("goto"),
+  IF_GOTO("if-goto"),
+  FUNCTION("function"),
+  CALL("call"),
+  RETURN("return");
+
+  private static final VmOpcode[] VALUES = values();
+
+  private final String text;
+
+  VmOpcode(String text){
+    this.text = text;
+  }
+
+  /**
+   * Returns the opcode with the given ordinal
+   * @param ordinal the ordinal of the opcode
+   * @return the opcode
+   */
+  public static VmOpcode of(int ordinal){
+    return VALUES[ordinal];
+  }
+
+  /**
+   * Returns the command as it is written in VM code
+   * @return the command
+   */
+  @Override
+  public String toString(){
+    return text;
+  }
+}
@@ -0,0 +1,42 @@
+/**
+ * The memory segments that the VM push and pop commands work on.
+ *
+ * @author Adam Turner
+ */
+public enum VmSegment {
+
+  CONSTANT("constant"),
+  ARGUMENT("argument"),
+  LOCAL("local"),
+  STATIC("static"),
+  THIS("this"),
+  THAT("that"),
+  POINTER("pointer"),
+  TEMP("temp");
+
+  private static final VmSegment[] VALUES = values();
+
+  private final String text;
+
+  VmSegment(String text){
+    this.text = text;
+  }
+
+  /**
+   * Returns the segment with the given ordinal
+   * @param ordinal the ordinal of the segment
+   * @return the segment
+   */
+  public static VmSegment of(int ordinal){
+    return VALUES[ordinal];
+  }
+
+  /**
+   * Returns the segment as it is written in VM code
+   * @return the segment
+   */
+  @Override
+  public String toString(){
+    return text;
+  }
+}
@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes VM code to a file as it is produced. Each instruction is rendered
+ * into a reused builder and encoded straight into a direct byte buffer,
+ * which is written to a FileChannel whenever it fills, so the memory used
+ * does not grow with the size of the output.
+ *
+ * The code is written to a temporary file next to the VM file, which only
+ * replaces the VM file once the writer is closed. A compilation that fails
+ * part way through leaves any earlier VM file as it was.
+ *
+ * A writer takes the spare buffer of its thread when it is created and
+ * gives it back when it is closed or aborted, so the buffer is reused by
+ * the writers a thread opens one after another. A writer opened while
+ * another on the same thread is still open allocates a buffer of its own.
+ *
+ * @author Adam Turner
+ */
+public class VmWriter {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private static final byte[] LINE_SEPARATOR =
+          System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+  private static final ThreadLocal<ByteBuffer> SPARE_BUFFER =
+          new ThreadLocal<>();
+
+  private final Path target;
+  private final Path temporary;
+  private final FileChannel channel;
+  private ByteBuffer buffer;
+  private final StringBuilder rendered;
+  private long bytesWritten;
+
+  /**
+   * Creates a new VmWriter for the given file, which is not changed until
+   * the writer is closed
+   * @param filename the path of the VM file
+   * @throws IOException thrown if the temporary file cannot be created
+   */
+  public VmWriter(String filename) throws IOException {
+    target = Paths.get(filename);
+    temporary = Paths.get(filename + ".tmp");
+    channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    buffer = SPARE_BUFFER.get();
+    if (buffer != null){
+      SPARE_BUFFER.remove();
+      buffer.clear();
+    }
+    else {
+      buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    rendered = new StringBuilder();
+  }
+
+  /**
+   * Writes a line of VM code followed by a line separator
+   * @param line the line, without a separator
+   * @throws IOException thrown if the buffer is full and cannot be written
+   */
+  public void write(CharSequence line) throws IOException {
+    int length = line.length();
+    for (int i = 0 ; i < length ; ++i){
+      char c = line.charAt(i);
+      if (c >= 0x80){
+        //VM code is always ASCII, except possibly names, which are encoded
+        // as a whole
+        writeBytes(line.toString().getBytes(StandardCharsets.UTF_8));
+        writeBytes(LINE_SEPARATOR);
+        return;
+      }
+    }
+
+    if (buffer.remaining() < length + LINE_SEPARATOR.length){
+      flush();
+      if (buffer.remaining() < length + LINE_SEPARATOR.length){
+        writeBytes(line.toString().getBytes(StandardCharsets.US_ASCII));
+        writeBytes(LINE_SEPARATOR);
+        return;
+      }
+    }
+    for (int i = 0 ; i < length ; ++i){
+      buffer.put((byte) line.charAt(i));
+    }
+    buffer.put(LINE_SEPARATOR);
+  }
+
+  /**
+   * Writes lines of VM code, each followed by a line separator
+   * @param lines the lines
+   * @throws IOException thrown if the buffer is full and cannot be written
+   */
+  public void write(List<String> lines) throws IOException {
+    for (String line : lines){
+      write(line);
+    }
+  }
+
+  /**
+   * Writes every instruction of some VM code, each on a line of its own
+   * @param code the code
+   * @throws IOException thrown if the buffer is full and cannot be written
+   */
+  public void write(VmCode code) throws IOException {
+    for (int i = 0 ; i < code.size() ; ++i){
+      rendered.setLength(0);
+      code.render(i, rendered);
+      write(rendered);
+    }
+  }
+
+  /**
+   * Returns the number of bytes written so far, including any still in the
+   * buffer
+   * @return the size of the output
+   */
+  public long getBytesWritten() {
+    return bytesWritten + (buffer != null ? buffer.position() : 0);
+  }
+
+  /**
+   * Writes out anything left in the buffer and moves the temporary file
+   * over the VM file. The writer cannot be used after this.
+   * @throws IOException thrown if the output cannot be written or moved
+   */
+  public void close() throws IOException {
+    try {
+      flush();
+      releaseBuffer();
+      channel.close();
+      try {
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e){
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    catch (IOException e){
+      abort();
+      throw e;
+    }
+  }
+
+  /**
+   * Discards the output, deleting the temporary file and leaving the VM file
+   * as it was. The writer cannot be used after this.
+   */
+  public void abort() {
+    releaseBuffer();
+    try {
+      channel.close();
+      Files.deleteIfExists(temporary);
+    }
+    catch (IOException e){
+      //Nothing more can be done, and the VM file has not been touched
+    }
+  }
+
+  /**
+   * Gives the buffer back to the thread for the next writer it opens, if it
+   * has not been given back already
+   */
+  private void releaseBuffer() {
+    if (buffer != null){
+      buffer.clear();
+      SPARE_BUFFER.set(buffer);
+      buffer = null;
+    }
+  }
+
+  /**
+   * Writes bytes that may not fit in the buffer, flushing it as it fills
+   * @param bytes the bytes to write
+   * @throws IOException thrown if the buffer cannot be written
+   */
+  private void writeBytes(byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length){
+      if (!buffer.hasRemaining()){
+        flush();
+      }
+      int count = Math.min(buffer.remaining(), bytes.length - offset);
+      buffer.put(bytes, offset, count);
+      offset += count;
+    }
+  }
+
+  /**
+   * Writes the contents of the buffer to the channel and empties it
+   * @throws IOException thrown if the buffer cannot be written
+   */
+  private void flush() throws IOException {
+    buffer.flip();
+    bytesWritten += buffer.remaining();
+    while (buffer.hasRemaining()){
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}